@@ -0,0 +1,143 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Writes output files of the export without ever exposing an incomplete file. The content is written into a hidden temporary file in the target
+ * folder and renamed when it is complete, so programs watching the export folder only see finished files. The file is synchronised to disk
+ * according to the configured {@link FsyncPolicy} before it is renamed.
+ */
+@Log4j2
+public class AtomicFileWriter {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Defines which data is forced to disk before an output file is visible
+     */
+    public enum FsyncPolicy {
+        // leave it to the operating system, fastest but a crash can leave an empty or incomplete file under the final name
+        NONE,
+        // force the content of the file to disk before it is renamed
+        FILE,
+        // additionally force the folder after the rename, so the new name survives a power failure
+        DIRECTORY;
+
+        /**
+         * @param value the configured value, case is ignored
+         * @return the policy or null, if the value is unknown
+         */
+        public static FsyncPolicy parse(String value) {
+            for (FsyncPolicy policy : values()) {
+                if (policy.name().equals(value.trim().toUpperCase(Locale.ROOT))) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes the content of a file into a stream
+     */
+    @FunctionalInterface
+    public interface Content<E extends Exception> {
+        void write(OutputStream out) throws IOException, E;
+    }
+
+    @Getter
+    private final FsyncPolicy fsyncPolicy;
+
+    public AtomicFileWriter(FsyncPolicy fsyncPolicy) {
+        this.fsyncPolicy = fsyncPolicy;
+    }
+
+    /**
+     * Get the temporary file for a target. Use this together with {@link #commit(Path, Path)} for libraries that can only write into a named file.
+     *
+     * @param target the final file
+     * @return a hidden file in the same folder
+     */
+    public static Path getTempFile(Path target) {
+        return target.resolveSibling("." + target.getFileName().toString() + ".part");
+    }
+
+    /**
+     * Stream the content into the target file. The stream is buffered and must not be closed by the content, closing it only flushes the buffer.
+     *
+     * @param target the final file, an existing file is replaced
+     * @param content writes the file content
+     * @throws IOException if the file cannot be written, the target is left unchanged in this case
+     * @throws E the exception of the content
+     */
+    public <E extends Exception> void write(Path target, Content<E> content) throws IOException, E {
+        Path tempFile = getTempFile(target);
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+                // some writers close the stream when they are done, this must not close the channel before it is forced
+                content.write(new FilterOutputStream(out) {
+                    @Override
+                    public void write(byte[] b, int off, int len) throws IOException {
+                        out.write(b, off, len);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        out.flush();
+                    }
+                });
+                out.flush();
+                if (fsyncPolicy != FsyncPolicy.NONE) {
+                    channel.force(true);
+                }
+            }
+            moveIntoPlace(tempFile, target);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Move a completely written temporary file into place. The temporary file must be in the same folder as the target, see
+     * {@link #getTempFile(Path)}.
+     *
+     * @param tempFile the written file
+     * @param target the final file, an existing file is replaced
+     * @throws IOException
+     */
+    public void commit(Path tempFile, Path target) throws IOException {
+        if (fsyncPolicy != FsyncPolicy.NONE) {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        moveIntoPlace(tempFile, target);
+    }
+
+    private void moveIntoPlace(Path tempFile, Path target) throws IOException {
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        if (fsyncPolicy == FsyncPolicy.DIRECTORY) {
+            try (FileChannel folder = FileChannel.open(target.toAbsolutePath().getParent(), StandardOpenOption.READ)) {
+                folder.force(true);
+            } catch (IOException e) {
+                // not every platform allows to open a folder
+                log.debug("Cannot synchronise folder of " + target, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Summary of a batch export
+ */
+@Data
+public class BatchExportReport {
+    private List<BatchExportResult> results = new ArrayList<>();
+    private long durationMillis;
+
+    public long getNumberOfSuccessfulExports() {
+        return results.stream().filter(BatchExportResult::isSuccess).count();
+    }
+
+    public long getNumberOfFailedExports() {
+        return results.size() - getNumberOfSuccessfulExports();
+    }
+
+    /**
+     * @return the number of exported processes per minute
+     */
+    public double getProcessesPerMinute() {
+        if (durationMillis == 0) {
+            return 0;
+        }
+        return results.size() * 60000d / durationMillis;
+    }
+}
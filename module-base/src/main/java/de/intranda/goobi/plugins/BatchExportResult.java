@@ -0,0 +1,18 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.Data;
+
+/**
+ * Result of a single process within a batch export
+ */
+@Data
+public class BatchExportResult {
+    private Integer processId;
+    private String processTitle;
+    private boolean success;
+    private long durationMillis;
+    private List<String> problems = new ArrayList<>();
+}
@@ -0,0 +1,253 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Delivers the notifications of a {@link CallbackQueue} on a background thread. Notifications for the same endpoint are sent in batches of up to
+ * {@value #BATCH_SIZE} via HTTP POST, the body is a JSON array with the {@link CallbackParams} that are also written into the submission manifest.
+ * Failed deliveries are retried with exponential backoff, after {@value #MAX_ATTEMPTS} attempts the notification is moved into the failed folder of
+ * the queue.
+ */
+@Log4j2
+public class CallbackDispatcher implements AutoCloseable {
+
+    public static final int BATCH_SIZE = 100;
+
+    public static final int MAX_ATTEMPTS = 20;
+
+    private static final long INITIAL_BACKOFF_MILLIS = 30_000;
+
+    private static final long MAX_BACKOFF_MILLIS = 3_600_000;
+
+    private static final long POLL_INTERVAL_SECONDS = 60;
+
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static CallbackDispatcher instance;
+
+    private static boolean shutdownHookRegistered;
+
+    private final CallbackQueue queue;
+
+    private final HttpClient client;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Create a dispatcher. The background thread is only started with {@link #start(long)}, so {@link #dispatch()} can also be called directly.
+     *
+     * @param queue the queue to deliver
+     * @param client the HTTP client to use
+     */
+    public CallbackDispatcher(CallbackQueue queue, HttpClient client) {
+        this.queue = queue;
+        this.client = client;
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "lza-callback-dispatcher");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the dispatcher for the queue in the Goobi temporary folder. It is created and started on the first call and stopped by {@link #shutdown()}
+     * or when the JVM exits.
+     *
+     * @return the dispatcher
+     * @throws IOException if the queue folder cannot be created
+     */
+    public static synchronized CallbackDispatcher getInstance() throws IOException {
+        if (instance == null) {
+            Path folder = Paths.get(ConfigurationHelper.getInstance().getTemporaryFolder(), "lza-callback-queue");
+            HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+            instance = new CallbackDispatcher(new CallbackQueue(folder), client);
+            instance.start(POLL_INTERVAL_SECONDS);
+            if (!shutdownHookRegistered) {
+                Runtime.getRuntime().addShutdownHook(new Thread(CallbackDispatcher::shutdown, "lza-callback-shutdown"));
+                shutdownHookRegistered = true;
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Stop the dispatcher created by {@link #getInstance()}, e.g. when Goobi is shut down. Pending notifications stay in the queue and are delivered
+     * by the next instance.
+     */
+    public static synchronized void shutdown() {
+        if (instance != null) {
+            instance.close();
+            instance = null;
+        }
+    }
+
+    /**
+     * Check the queue periodically
+     *
+     * @param pollIntervalSeconds delay between two runs
+     */
+    public void start(long pollIntervalSeconds) {
+        scheduler.scheduleWithFixedDelay(this::dispatchQuietly, 0, pollIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Add a notification to the queue and start a delivery in the background. The method does not wait for the delivery.
+     *
+     * @param notification the notification
+     * @throws IOException if the notification cannot be stored
+     */
+    public void submit(CallbackNotification notification) throws IOException {
+        queue.add(notification);
+        if (!scheduler.isShutdown()) {
+            scheduler.execute(this::dispatchQuietly);
+        }
+    }
+
+    private void dispatchQuietly() {
+        try {
+            dispatch();
+        } catch (IOException | RuntimeException e) {
+            log.error("Error while delivering callback notifications", e);
+        }
+    }
+
+    /**
+     * Deliver all notifications that are due. If the thread is interrupted, e.g. on shutdown, the remaining notifications stay in the queue without
+     * counting as failed attempt.
+     *
+     * @return the number of delivered notifications
+     * @throws IOException if the queue cannot be read
+     */
+    public synchronized int dispatch() throws IOException {
+        long now = System.currentTimeMillis();
+        Map<String, List<Path>> entriesByEndpoint = new LinkedHashMap<>();
+        Map<Path, CallbackNotification> notifications = new LinkedHashMap<>();
+        for (Path entry : queue.list()) {
+            CallbackNotification notification = queue.read(entry);
+            if (notification == null) {
+                queue.moveToFailed(entry);
+            } else if (notification.getNextAttempt() <= now) {
+                entriesByEndpoint.computeIfAbsent(notification.getEndpoint(), e -> new ArrayList<>()).add(entry);
+                notifications.put(entry, notification);
+            }
+        }
+        int delivered = 0;
+        for (Map.Entry<String, List<Path>> endpoint : entriesByEndpoint.entrySet()) {
+            List<Path> entries = endpoint.getValue();
+            for (int start = 0; start < entries.size(); start += BATCH_SIZE) {
+                List<Path> batch = entries.subList(start, Math.min(start + BATCH_SIZE, entries.size()));
+                List<CallbackParams> payload = new ArrayList<>(batch.size());
+                for (Path entry : batch) {
+                    payload.add(createPayload(notifications.get(entry)));
+                }
+                boolean success;
+                try {
+                    success = send(endpoint.getKey(), payload);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return delivered;
+                }
+                if (!success) {
+                    for (Path entry : batch) {
+                        reschedule(entry, notifications.get(entry), now);
+                    }
+                    // the remaining batches of the endpoint are still due and are sent in the next run
+                    break;
+                }
+                for (Path entry : batch) {
+                    queue.remove(entry);
+                }
+                delivered += batch.size();
+            }
+        }
+        return delivered;
+    }
+
+    /**
+     * Create the entry of a notification in the request body, it contains the same values as the callback parameters of the submission manifest
+     */
+    static CallbackParams createPayload(CallbackNotification notification) {
+        CallbackParams params = new CallbackParams();
+        params.setEndpoint(notification.getEndpoint());
+        params.setProcessId(notification.getProcessId());
+        params.setStepId(notification.getStepId());
+        return params;
+    }
+
+    private void reschedule(Path entry, CallbackNotification notification, long now) throws IOException {
+        notification.setAttempts(notification.getAttempts() + 1);
+        if (notification.getAttempts() >= MAX_ATTEMPTS) {
+            log.error("Callback notification for process " + notification.getProcessId() + " could not be delivered to " + notification.getEndpoint()
+                    + " after " + notification.getAttempts() + " attempts");
+            queue.moveToFailed(entry);
+            return;
+        }
+        notification.setNextAttempt(now + getBackoff(notification.getAttempts()));
+        queue.update(entry, notification);
+    }
+
+    // exponential backoff with up to 20 % jitter, so failed batches do not all retry at the same time
+    static long getBackoff(int attempts) {
+        long backoff = MAX_BACKOFF_MILLIS;
+        if (attempts < 30) {
+            backoff = Math.min(MAX_BACKOFF_MILLIS, INITIAL_BACKOFF_MILLIS << (attempts - 1));
+        }
+        return backoff + ThreadLocalRandom.current().nextLong(backoff / 5 + 1);
+    }
+
+    private boolean send(String endpoint, List<CallbackParams> payload) throws InterruptedException {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(endpoint))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(MAPPER.writeValueAsBytes(payload)))
+                    .build();
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() >= 200 && response.statusCode() < 300) {
+                return true;
+            }
+            log.warn("Callback endpoint " + endpoint + " returned status " + response.statusCode());
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn("Cannot deliver callback notifications to " + endpoint + ": " + e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Stop the background thread. A running delivery is given some time to finish, so its queue entries are updated.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package de.intranda.goobi.plugins;
+
+import lombok.Data;
+
+/**
+ * Notification about a completed submission, waiting in the {@link CallbackQueue} for delivery to the configured endpoint
+ */
+@Data
+public class CallbackNotification {
+    private String endpoint;
+    private Integer processId;
+    private Integer stepId;
+    private String processTitle;
+    // creation date in milliseconds
+    private long created;
+    // number of failed deliveries
+    private int attempts;
+    // earliest date of the next delivery in milliseconds
+    private long nextAttempt;
+}
@@ -0,0 +1,115 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Durable queue of callback notifications. Each notification is stored as JSON file in the queue folder, so pending notifications survive a
+ * restart. The file names start with the creation date, so the notifications are delivered in the order they were added. Notifications that
+ * could not be delivered are moved into the sub folder {@value #FAILED_FOLDER}.
+ */
+@Log4j2
+public class CallbackQueue {
+
+    public static final String FAILED_FOLDER = "failed";
+
+    private static final String SUFFIX = ".json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Getter
+    private final Path folder;
+
+    /**
+     * @param folder the queue folder, gets created if it does not exist
+     * @throws IOException if the folder cannot be created
+     */
+    public CallbackQueue(Path folder) throws IOException {
+        this.folder = folder;
+        Files.createDirectories(folder);
+    }
+
+    /**
+     * Add a notification to the queue
+     *
+     * @param notification the notification
+     * @return the queue entry
+     * @throws IOException if the notification cannot be stored
+     */
+    public Path add(CallbackNotification notification) throws IOException {
+        String name = String.format(Locale.ROOT, "%013d", notification.getCreated()) + "-" + notification.getProcessId() + "-" + UUID.randomUUID() + SUFFIX;
+        Path entry = folder.resolve(name);
+        write(entry, notification);
+        return entry;
+    }
+
+    /**
+     * @return all queue entries, oldest first
+     * @throws IOException if the queue folder cannot be read
+     */
+    public List<Path> list() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder, "*" + SUFFIX)) {
+            for (Path entry : stream) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries);
+        return entries;
+    }
+
+    /**
+     * @return the notification of a queue entry or null, if the entry cannot be read
+     */
+    public CallbackNotification read(Path entry) {
+        try {
+            return MAPPER.readValue(entry.toFile(), CallbackNotification.class);
+        } catch (IOException e) {
+            log.error("Cannot read callback notification " + entry, e);
+            return null;
+        }
+    }
+
+    /**
+     * Replace the notification of an existing queue entry, e.g. to store the number of attempts
+     */
+    public void update(Path entry, CallbackNotification notification) throws IOException {
+        write(entry, notification);
+    }
+
+    public void remove(Path entry) throws IOException {
+        Files.deleteIfExists(entry);
+    }
+
+    /**
+     * Move an entry into the folder of failed notifications, it is not delivered again
+     */
+    public void moveToFailed(Path entry) throws IOException {
+        Path failedFolder = folder.resolve(FAILED_FOLDER);
+        Files.createDirectories(failedFolder);
+        Files.move(entry, failedFolder.resolve(entry.getFileName()), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    // write into a temporary file first, so the dispatcher never reads an incomplete entry
+    private void write(Path entry, CallbackNotification notification) throws IOException {
+        Path tempFile = entry.resolveSibling(entry.getFileName().toString() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tempFile)) {
+            MAPPER.writeValue(out, notification);
+        }
+        Files.move(tempFile, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,167 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Persistent cache for file checksums. An entry is only valid as long as path, size, modification date and algorithm of the file are unchanged.
+ * The cache is stored as a tab separated sidecar file, usually in the process data directory.
+ */
+@Log4j2
+public class ChecksumCache {
+
+    public static final String CACHE_FILE_NAME = "lza-checksum-cache.txt";
+
+    private static final String SEPARATOR = "\t";
+
+    private final Path cacheFile;
+
+    private final Map<String, CacheEntry> entries = new ConcurrentHashMap<>();
+
+    private final Set<String> usedKeys = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean modified;
+
+    private ChecksumCache(Path cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Load the cache from the given file. If the file does not exist or cannot be read, an empty cache is returned.
+     *
+     * @param cacheFile the sidecar file
+     * @return the cache
+     */
+    public static ChecksumCache load(Path cacheFile) {
+        ChecksumCache cache = new ChecksumCache(cacheFile);
+        if (!Files.exists(cacheFile)) {
+            return cache;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // algorithm, size, last modified, checksum, path
+                String[] parts = line.split(SEPARATOR, 5);
+                if (parts.length == 5) {
+                    cache.entries.put(createKey(parts[4], parts[0]),
+                            new CacheEntry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.error("Cannot read checksum cache " + cacheFile + ", all checksums get recalculated", e);
+            cache.entries.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Get the cached checksum of a file
+     *
+     * @param file the file
+     * @param size current size of the file
+     * @param lastModified current modification date of the file
+     * @param algorithm checksum algorithm
+     * @return the cached checksum or null, if the file is unknown or was changed since the checksum was calculated
+     */
+    public String get(Path file, long size, long lastModified, String algorithm) {
+        String key = createKey(file.toString(), algorithm);
+        CacheEntry entry = entries.get(key);
+        if (entry == null || entry.size != size || entry.lastModified != lastModified) {
+            return null;
+        }
+        usedKeys.add(key);
+        return entry.checksum;
+    }
+
+    /**
+     * Store the checksum of a file
+     */
+    public void put(Path file, long size, long lastModified, String algorithm, String checksum) {
+        String key = createKey(file.toString(), algorithm);
+        entries.put(key, new CacheEntry(size, lastModified, checksum));
+        usedKeys.add(key);
+        modified = true;
+    }
+
+    /**
+     * Remove the checksums of a file
+     *
+     * @param file the file
+     * @param algorithms the algorithms to remove
+     */
+    public void remove(Path file, List<String> algorithms) {
+        for (String algorithm : algorithms) {
+            String key = createKey(file.toString(), algorithm);
+            usedKeys.remove(key);
+            if (entries.remove(key) != null) {
+                modified = true;
+            }
+        }
+    }
+
+    /**
+     * Write the cache back into the sidecar file, if it was changed
+     *
+     * @param prune remove all entries that were not used since the cache was loaded, e.g. because the file was deleted
+     * @throws IOException
+     */
+    public void save(boolean prune) throws IOException {
+        if (prune && entries.keySet().retainAll(usedKeys)) {
+            modified = true;
+        }
+        if (!modified) {
+            return;
+        }
+        if (entries.isEmpty()) {
+            Files.deleteIfExists(cacheFile);
+            modified = false;
+            return;
+        }
+        Path tempFile = cacheFile.resolveSibling(cacheFile.getFileName().toString() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, CacheEntry> e : entries.entrySet()) {
+                int index = e.getKey().indexOf(SEPARATOR);
+                CacheEntry entry = e.getValue();
+                writer.write(e.getKey().substring(0, index));
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(entry.size));
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(entry.lastModified));
+                writer.write(SEPARATOR);
+                writer.write(entry.checksum);
+                writer.write(SEPARATOR);
+                writer.write(e.getKey().substring(index + 1));
+                writer.newLine();
+            }
+        }
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        modified = false;
+    }
+
+    private static String createKey(String path, String algorithm) {
+        return algorithm + SEPARATOR + path;
+    }
+
+    private static class CacheEntry {
+        private final long size;
+        private final long lastModified;
+        private final String checksum;
+
+        private CacheEntry(long size, long lastModified, String checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+}
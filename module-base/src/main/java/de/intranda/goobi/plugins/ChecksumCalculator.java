@@ -0,0 +1,462 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Computes checksums of files on a bounded pool of worker threads. All configured algorithms are calculated from a single read of each file. The
+ * results are returned in the same order as the requested files, so the caller can write them back in document order. Files can be submitted
+ * early, so that hashing runs in the background while other parts of the export are generated. If a {@link ChecksumCache} is used, files that
+ * were not changed since the last calculation are not read again.
+ */
+@Log4j2
+public class ChecksumCalculator implements AutoCloseable {
+
+    public static final String CHECKSUM_TYPE = "SHA-256";
+
+    public static final List<String> DEFAULT_ALGORITHMS = Collections.singletonList(CHECKSUM_TYPE);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final int DIRECT_BUFFER_SIZE = 1024 * 1024;
+
+    // one direct buffer per worker thread, allocating direct memory for each file is expensive
+    private static final ThreadLocal<ByteBuffer> DIRECT_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE));
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    // large enough for SHA-512
+    private static final int HEX_BUFFER_SIZE = 128;
+
+    private static final ThreadLocal<char[]> HEX_BUFFER = ThreadLocal.withInitial(() -> new char[HEX_BUFFER_SIZE]);
+
+    private final ExecutorService executor;
+
+    private final boolean ownExecutor;
+
+    private final List<String> algorithms;
+
+    // fast algorithm to check cached checksums, if set
+    private final String changeDetectionAlgorithm;
+
+    private final ChecksumCache cache;
+
+    private final boolean verifyCachedChecksums;
+
+    private final Map<Path, CompletableFuture<Map<String, String>>> submitted = new ConcurrentHashMap<>();
+
+    private volatile StorageBackend storageBackend = LocalStorageBackend.INSTANCE;
+
+    // bytes read for each hashed file, so discarded files can be removed from the statistics
+    private final Map<Path, Long> hashedFiles = new ConcurrentHashMap<>();
+
+    private final Set<Path> cachedFiles = ConcurrentHashMap.newKeySet();
+
+    private final Set<Path> discardedFiles = ConcurrentHashMap.newKeySet();
+
+    public ChecksumCalculator(int numberOfThreads) {
+        this(numberOfThreads, DEFAULT_ALGORITHMS, null, false);
+    }
+
+    /**
+     * @param numberOfThreads size of the worker pool
+     * @param algorithms the algorithms to calculate. If {@value MultiDigest#CRC32C} is included, it is used to verify cached checksums.
+     * @param cache checksum cache to use, can be null
+     * @param verifyCachedChecksums if true, all files are hashed again, even if the cache contains a valid checksum
+     */
+    public ChecksumCalculator(int numberOfThreads, List<String> algorithms, ChecksumCache cache, boolean verifyCachedChecksums) {
+        this(createExecutor(numberOfThreads), true, algorithms, cache, verifyCachedChecksums);
+    }
+
+    /**
+     * Use an existing worker pool, e.g. one that is shared between several exports. The pool is not shut down when the calculator is closed.
+     *
+     * @param executor the worker pool
+     * @param algorithms the algorithms to calculate. If {@value MultiDigest#CRC32C} is included, it is used to verify cached checksums.
+     * @param cache checksum cache to use, can be null
+     * @param verifyCachedChecksums if true, all files are hashed again, even if the cache contains a valid checksum
+     */
+    public ChecksumCalculator(ExecutorService executor, List<String> algorithms, ChecksumCache cache, boolean verifyCachedChecksums) {
+        this(executor, false, algorithms, cache, verifyCachedChecksums);
+    }
+
+    private ChecksumCalculator(ExecutorService executor, boolean ownExecutor, List<String> algorithms, ChecksumCache cache,
+            boolean verifyCachedChecksums) {
+        this.executor = executor;
+        this.ownExecutor = ownExecutor;
+        this.algorithms = algorithms;
+        this.changeDetectionAlgorithm = algorithms.contains(MultiDigest.CRC32C) ? MultiDigest.CRC32C : null;
+        this.cache = cache;
+        this.verifyCachedChecksums = verifyCachedChecksums;
+    }
+
+    /**
+     * Set the backend to read the submitted files, the default is the local file system. Must be called before the first file is submitted.
+     *
+     * @param storageBackend the backend
+     */
+    public void setStorageBackend(StorageBackend storageBackend) {
+        this.storageBackend = storageBackend;
+    }
+
+    /**
+     * Create a worker pool with daemon threads
+     *
+     * @param numberOfThreads size of the pool
+     * @return the pool
+     */
+    public static ExecutorService createExecutor(int numberOfThreads) {
+        AtomicInteger threadCounter = new AtomicInteger();
+        return Executors.newFixedThreadPool(Math.max(1, numberOfThreads), r -> {
+            Thread thread = new Thread(r, "lza-checksum-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start the checksum calculation of a file in the background. If the file was already submitted, the existing calculation is returned.
+     *
+     * @param file the file to hash
+     * @return the pending checksums, by algorithm
+     */
+    public CompletableFuture<Map<String, String>> submit(Path file) {
+        return submit(file, null);
+    }
+
+    /**
+     * Start the checksum calculation of a file with known size and modification date, e.g. from the {@link FileIndex}. The attributes are not read
+     * again.
+     *
+     * @param file the file to hash
+     * @return the pending checksums, by algorithm
+     */
+    public CompletableFuture<Map<String, String>> submit(FileIndex.Entry file) {
+        return submit(file.getPath(), file);
+    }
+
+    private CompletableFuture<Map<String, String>> submit(Path file, FileIndex.Entry attributes) {
+        return submitted.computeIfAbsent(file, f -> CompletableFuture.supplyAsync(() -> {
+            try {
+                return getChecksums(attributes == null ? storageBackend.stat(f) : attributes);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, executor));
+    }
+
+    /**
+     * Use known checksums for a file, e.g. from the last export. The file is not read.
+     *
+     * @param file the file
+     * @param checksums the checksums, by algorithm
+     */
+    public void preset(Path file, Map<String, String> checksums) {
+        if (submitted.putIfAbsent(file, CompletableFuture.completedFuture(checksums)) == null) {
+            cachedFiles.add(file);
+        }
+    }
+
+    /**
+     * Calculate the checksums of all given files in parallel. Files that were already submitted are not hashed again. The method fails as soon as
+     * the first file cannot be read, the other calculations get cancelled when the calculator is closed.
+     *
+     * @param files list of files to hash
+     * @return the checksums by algorithm, in the same order as the files
+     * @throws IOException if a file is missing or cannot be read
+     * @throws InterruptedException if the calling thread was interrupted while waiting for the results
+     */
+    public List<Map<String, String>> calculateChecksums(List<Path> files) throws IOException, InterruptedException {
+        List<CompletableFuture<Map<String, String>>> futures = new ArrayList<>(files.size());
+        CompletableFuture<Map<String, String>> firstFailure = new CompletableFuture<>();
+        for (Path file : files) {
+            CompletableFuture<Map<String, String>> future = submit(file);
+            future.whenComplete((checksum, e) -> {
+                if (e != null) {
+                    firstFailure.completeExceptionally(e);
+                }
+            });
+            futures.add(future);
+        }
+        try {
+            CompletableFuture.anyOf(CompletableFuture.allOf(futures.toArray(new CompletableFuture[futures.size()])), firstFailure).get();
+        } catch (ExecutionException e) {
+            throw unwrapException(e);
+        }
+        List<Map<String, String>> result = new ArrayList<>(futures.size());
+        for (CompletableFuture<Map<String, String>> future : futures) {
+            result.add(future.join());
+        }
+        return result;
+    }
+
+    private static IOException unwrapException(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof ExecutionException || cause instanceof CompletionException || cause instanceof UncheckedIOException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException(cause);
+    }
+
+    private Map<String, String> getChecksums(FileIndex.Entry attributes) throws IOException {
+        Path file = attributes.getPath();
+        long size = attributes.getSize();
+        if (cache == null) {
+            Map<String, String> checksums = storageBackend.calculateChecksums(attributes, algorithms);
+            countHashedFile(file, size);
+            return checksums;
+        }
+        long lastModified = attributes.getLastModified();
+        Map<String, String> cachedChecksums = getCachedChecksums(file, size, lastModified);
+        if (cachedChecksums != null) {
+            if (!verifyCachedChecksums) {
+                if (!discardedFiles.contains(file)) {
+                    cachedFiles.add(file);
+                }
+                return cachedChecksums;
+            }
+            if (changeDetectionAlgorithm != null) {
+                // only the fast algorithm is needed to detect a changed content
+                String value = storageBackend.calculateChecksums(attributes, Collections.singletonList(changeDetectionAlgorithm))
+                        .get(changeDetectionAlgorithm);
+                countHashedFile(file, size);
+                if (value.equals(cachedChecksums.get(changeDetectionAlgorithm))) {
+                    return cachedChecksums;
+                }
+                log.warn("Content of unchanged file " + file + " differs from the cached " + changeDetectionAlgorithm + " value, calculating all checksums");
+            }
+        }
+        Map<String, String> checksums = storageBackend.calculateChecksums(attributes, algorithms);
+        countHashedFile(file, size);
+        if (cachedChecksums != null && !cachedChecksums.equals(checksums)) {
+            log.warn("Checksums of unchanged file " + file + " differ from the cached values " + cachedChecksums + ", using new values " + checksums);
+        }
+        if (!discardedFiles.contains(file)) {
+            for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                cache.put(file, size, lastModified, entry.getKey(), entry.getValue());
+            }
+        }
+        return checksums;
+    }
+
+    /**
+     * @return the cached checksums or null, if the cache does not contain a valid checksum for each algorithm
+     */
+    private Map<String, String> getCachedChecksums(Path file, long size, long lastModified) {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (String algorithm : algorithms) {
+            String checksum = cache.get(file, size, lastModified, algorithm);
+            if (checksum == null) {
+                return null;
+            }
+            checksums.put(algorithm, checksum);
+        }
+        return checksums;
+    }
+
+    private void countHashedFile(Path file, long size) {
+        if (!discardedFiles.contains(file)) {
+            hashedFiles.merge(file, size, Long::sum);
+        }
+    }
+
+    /**
+     * Discard all submitted files that are not in the given list, e.g. files that were submitted before the METS file was written, but are not
+     * referenced in it. Pending calculations of these files are cancelled, and they are removed from the statistics and from the cache.
+     *
+     * @param files the files to keep
+     */
+    public void retain(Collection<Path> files) {
+        Set<Path> retained = new HashSet<>(files);
+        for (Iterator<Map.Entry<Path, CompletableFuture<Map<String, String>>>> iterator = submitted.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<Path, CompletableFuture<Map<String, String>>> entry = iterator.next();
+            Path file = entry.getKey();
+            if (!retained.contains(file)) {
+                discardedFiles.add(file);
+                entry.getValue().cancel(false);
+                iterator.remove();
+                hashedFiles.remove(file);
+                cachedFiles.remove(file);
+                if (cache != null) {
+                    cache.remove(file, algorithms);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of bytes read for checksum calculation so far
+     */
+    public long getBytesHashed() {
+        long bytes = 0;
+        for (long size : hashedFiles.values()) {
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    /**
+     * @return number of files that were read for checksum calculation so far
+     */
+    public int getFilesHashed() {
+        return hashedFiles.size();
+    }
+
+    /**
+     * @return number of files whose checksum was taken from the cache or set with {@link #preset(Path, Map)}
+     */
+    public int getFilesFromCache() {
+        return cachedFiles.size();
+    }
+
+    /**
+     * Calculate the {@value #CHECKSUM_TYPE} checksum of a single file on the calling thread
+     *
+     * @param file the file to hash
+     * @return the hex encoded checksum
+     * @throws IOException if the file is missing or cannot be read
+     */
+    public static String calculateChecksum(Path file) throws IOException {
+        return calculateChecksums(file, DEFAULT_ALGORITHMS).get(CHECKSUM_TYPE);
+    }
+
+    /**
+     * Calculate the checksums of a single file on the calling thread. All algorithms are updated from the same read. Files on the local file system
+     * are read through a {@link FileChannel} into a direct buffer, all other files are read from the {@link StorageProvider}.
+     *
+     * @param file the file to hash
+     * @param algorithms the algorithms to calculate
+     * @return the hex encoded checksums, by algorithm
+     * @throws IOException if the file is missing or cannot be read
+     */
+    public static Map<String, String> calculateChecksums(Path file, List<String> algorithms) throws IOException {
+        if (isLocalFile(file)) {
+            return calculateChecksumsFromChannel(file, algorithms);
+        }
+        return calculateChecksumsFromStream(file, algorithms);
+    }
+
+    static Map<String, String> calculateChecksumsFromChannel(Path file, List<String> algorithms) throws IOException {
+        MultiDigest digest = MultiDigest.create(algorithms);
+        ByteBuffer buffer = DIRECT_BUFFER.get();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer.clear();
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.finish();
+    }
+
+    /**
+     * Copy a local file and calculate its checksums from the same read
+     *
+     * @param source the file to copy
+     * @param target the target file, an existing file gets replaced
+     * @param algorithms the algorithms to calculate
+     * @return the hex encoded checksums, by algorithm
+     * @throws IOException
+     */
+    public static Map<String, String> copyWithChecksums(Path source, Path target, List<String> algorithms) throws IOException {
+        MultiDigest digest = MultiDigest.create(algorithms);
+        ByteBuffer buffer = DIRECT_BUFFER.get();
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                int start = buffer.position();
+                digest.update(buffer);
+                // the digest consumed the buffer, write the same bytes again
+                buffer.position(start);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+        }
+        return digest.finish();
+    }
+
+    static Map<String, String> calculateChecksumsFromStream(Path file, List<String> algorithms) throws IOException {
+        try (InputStream is = StorageProvider.getInstance().newInputStream(file)) {
+            return calculateChecksums(is, algorithms);
+        }
+    }
+
+    static Map<String, String> calculateChecksums(InputStream is, List<String> algorithms) throws IOException {
+        MultiDigest digest = MultiDigest.create(algorithms);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = is.read(buffer)) != -1) {
+            digest.update(buffer, 0, length);
+        }
+        return digest.finish();
+    }
+
+    private static boolean isLocalFile(Path file) {
+        return file.getFileSystem() == FileSystems.getDefault() && Files.isRegularFile(file);
+    }
+
+    /**
+     * Encode a digest as lower case hex string. The characters are written into a buffer of the current thread, so only the resulting string is
+     * allocated.
+     *
+     * @param hash the digest
+     * @return the hex string
+     */
+    static String getShaString(byte[] hash) {
+        int length = hash.length * 2;
+        char[] chars = length <= HEX_BUFFER_SIZE ? HEX_BUFFER.get() : new char[length];
+        for (int i = 0, j = 0; i < hash.length; i++) {
+            int value = hash[i] & 0xff;
+            chars[j++] = HEX_DIGITS[value >>> 4];
+            chars[j++] = HEX_DIGITS[value & 0x0f];
+        }
+        return new String(chars, 0, length);
+    }
+
+    @Override
+    public void close() {
+        if (ownExecutor) {
+            executor.shutdownNow();
+        } else {
+            // pending calculations of a shared pool are skipped, running ones finish
+            for (CompletableFuture<Map<String, String>> future : submitted.values()) {
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.persistence.managers.ProcessManager;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Exports a list of processes in one run. The plugin configuration is taken from the {@link PluginConfiguration} cache, so it is parsed only
+ * once for the whole batch.
+ *
+ * The exports run in a bounded pipeline: a fixed number of export workers read the metadata, write the METS files and the manifests, while the
+ * checksums of all processes are calculated on a separate, shared worker pool. This way the I/O bound metadata and METS stages of one process
+ * overlap with the hashing of the others. Processes are handed to the workers through a bounded queue, so a long list is loaded step by step
+ * instead of being queued at once.
+ *
+ * The class has no user interface of its own, it is meant to be called by other plugins or scripts, e.g. a GoobiScript or a REST endpoint.
+ */
+@Log4j2
+public class EwigBatchExport {
+
+    private final int numberOfExportThreads;
+    private final int numberOfChecksumThreads;
+
+    /**
+     * @param numberOfExportThreads number of processes that are exported at the same time
+     * @param numberOfChecksumThreads size of the shared worker pool for checksum calculation
+     */
+    public EwigBatchExport(int numberOfExportThreads, int numberOfChecksumThreads) {
+        this.numberOfExportThreads = Math.max(1, numberOfExportThreads);
+        this.numberOfChecksumThreads = Math.max(1, numberOfChecksumThreads);
+    }
+
+    /**
+     * @return the number of processes that are running or waiting for a free export worker at the same time
+     */
+    private int getQueueCapacity() {
+        return 2 * numberOfExportThreads;
+    }
+
+    /**
+     * Export all given processes. Each process is exported with the configuration of its {@value EwigExportPlugin#PLUGIN_NAME} step.
+     *
+     * @param processIds the processes to export
+     * @return the result of each process and the overall throughput
+     * @throws InterruptedException if the batch was interrupted
+     */
+    public BatchExportReport export(List<Integer> processIds) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        ExecutorService checksumExecutor = ChecksumCalculator.createExecutor(numberOfChecksumThreads);
+        AtomicInteger threadCounter = new AtomicInteger();
+        ExecutorService exportExecutor = Executors.newFixedThreadPool(numberOfExportThreads, r -> {
+            Thread thread = new Thread(r, "lza-export-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // the plugin keeps no state of a single export, one instance serves all workers
+        EwigExportPlugin plugin = new EwigExportPlugin();
+        plugin.setChecksumExecutor(checksumExecutor);
+        BatchExportReport report = new BatchExportReport();
+        try {
+            List<Future<BatchExportResult>> futures = new ArrayList<>(processIds.size());
+            // duration of each export, also of the failed ones, written by the worker before its result is available
+            long[] durations = new long[processIds.size()];
+            // blocks the submission, until a queued process was exported
+            Semaphore queue = new Semaphore(getQueueCapacity());
+            for (int i = 0; i < processIds.size(); i++) {
+                int index = i;
+                queue.acquire();
+                futures.add(exportExecutor.submit(() -> {
+                    long exportStart = System.currentTimeMillis();
+                    try {
+                        return exportProcess(plugin, processIds.get(index));
+                    } finally {
+                        durations[index] = System.currentTimeMillis() - exportStart;
+                        queue.release();
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                BatchExportResult result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException e) {
+                    log.error("Export of process " + processIds.get(i) + " failed", e.getCause());
+                    result = new BatchExportResult();
+                    result.setProcessId(processIds.get(i));
+                    result.getProblems().add(String.valueOf(e.getCause().getMessage()));
+                }
+                result.setDurationMillis(durations[i]);
+                log.debug("LZA export of process " + processIds.get(i) + " finished in " + result.getDurationMillis() + " ms, success: "
+                        + result.isSuccess());
+                report.getResults().add(result);
+            }
+        } finally {
+            exportExecutor.shutdownNow();
+            checksumExecutor.shutdownNow();
+        }
+        report.setDurationMillis(System.currentTimeMillis() - start);
+        log.info("LZA batch export finished: " + report.getResults().size() + " processes, " + report.getNumberOfSuccessfulExports() + " successful, "
+                + report.getNumberOfFailedExports() + " failed, " + report.getDurationMillis() + " ms, "
+                + String.format(Locale.ROOT, "%.2f", report.getProcessesPerMinute()) + " processes/min");
+        return report;
+    }
+
+    private BatchExportResult exportProcess(EwigExportPlugin plugin, Integer processId) throws Exception {
+        BatchExportResult result = new BatchExportResult();
+        result.setProcessId(processId);
+        Process process = ProcessManager.getProcessById(processId);
+        if (process == null) {
+            result.getProblems().add("Process " + processId + " does not exist");
+            return result;
+        }
+        result.setProcessTitle(process.getTitel());
+        Step step = getExportStep(process);
+        if (step == null) {
+            result.getProblems().add("Process " + process.getTitel() + " has no step with plugin " + EwigExportPlugin.PLUGIN_NAME);
+            return result;
+        }
+        ExportContext context = EwigExportPlugin.createContext(process, step);
+        if (context == null) {
+            result.getProblems().add("No configuration found for process " + process.getTitel());
+            return result;
+        }
+        result.setSuccess(plugin.startExport(context));
+        result.getProblems().addAll(context.getProblems());
+        return result;
+    }
+
+    private static Step getExportStep(Process process) {
+        if (process.getSchritte() != null) {
+            for (Step step : process.getSchritte()) {
+                if (EwigExportPlugin.PLUGIN_NAME.equals(step.getStepPlugin())) {
+                    return step;
+                }
+            }
+        }
+        return null;
+    }
+}
@@ -1,30 +1,33 @@
 package de.intranda.goobi.plugins;
 
-import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.math.BigInteger;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLStreamException;
 
-import org.apache.commons.configuration.HierarchicalConfiguration;
-import org.apache.commons.configuration.SubnodeConfiguration;
-import org.apache.commons.configuration.XMLConfiguration;
-import org.apache.commons.configuration.reloading.FileChangedReloadingStrategy;
-import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
 import org.apache.commons.lang.StringUtils;
 import org.goobi.beans.Process;
 import org.goobi.beans.ProjectFileGroup;
@@ -35,18 +38,10 @@ import org.goobi.production.enums.PluginType;
 import org.goobi.production.enums.StepReturnValue;
 import org.goobi.production.plugin.interfaces.IPlugin;
 import org.goobi.production.plugin.interfaces.IStepPlugin;
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.JDOMException;
-import org.jdom2.Namespace;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 
-import de.sub.goobi.config.ConfigPlugins;
 import de.sub.goobi.config.ConfigurationHelper;
 import de.sub.goobi.export.download.ExportMets;
 import de.sub.goobi.helper.Helper;
@@ -69,7 +64,6 @@ import ugh.dl.DigitalDocument;
 import ugh.dl.DocStruct;
 import ugh.dl.ExportFileformat;
 import ugh.dl.Fileformat;
-import ugh.dl.Metadata;
 import ugh.dl.Prefs;
 import ugh.dl.VirtualFileGroup;
 import ugh.exceptions.DocStructHasNoTypeException;
@@ -83,20 +77,15 @@ import ugh.exceptions.WriteException;
 @PluginImplementation
 public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin {
 
-    private static final String PLUGIN_NAME = "intranda_step_lza_ewig";
-
-    private String exportFolder = "/opt/digiverso/lza/";
+    static final String PLUGIN_NAME = "intranda_step_lza_ewig";
 
-    private static final Namespace metsNamespace = Namespace.getNamespace("mets", "http://www.loc.gov/METS/");
-    private static final Namespace xlink = Namespace.getNamespace("xlink", "http://www.w3.org/1999/xlink");
+    static final ObjectMapper YAML_MAPPER = new ObjectMapper(new YAMLFactory());
 
     private Step step;
     private String returnPath;
-    private Prefs prefs;
 
-    private boolean exportXmlLog;
-    private boolean createManifest;
-    private Map<String, List<String>> submissionParameter = new HashMap<>();
+    // shared worker pool for checksum calculation, used by batch exports
+    private volatile ExecutorService checksumExecutor;
 
     @Override
     public PluginType getType() {
@@ -116,16 +105,81 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
     public boolean startExport(Process process) throws IOException, InterruptedException, DocStructHasNoTypeException, PreferencesException,
     WriteException, MetadataTypeNotAllowedException, ExportFileException, UghHelperException, ReadException, SwapException, DAOException,
     TypeNotAllowedForParentException {
-        return startExport(process, exportFolder);
+        return startExport(process, process.getProcessDataDirectory());
     }
 
     @Override
     public boolean startExport(Process process, String destination) throws IOException, InterruptedException, DocStructHasNoTypeException,
     PreferencesException, WriteException, MetadataTypeNotAllowedException, ExportFileException, UghHelperException, ReadException,
     SwapException, DAOException, TypeNotAllowedForParentException {
-        //        destination = ConfigPlugins.getPluginConfig(this.getTitle()).getString("exportFolder", destination);
-        destination = process.getProcessDataDirectory();
-        prefs = process.getRegelsatz().getPreferences();
+        ExportContext context = createContext(process, step);
+        if (context == null) {
+            problems.add("Export cancelled: no configuration found");
+            return false;
+        }
+        boolean success = startExport(context);
+        problems.addAll(context.getProblems());
+        return success;
+    }
+
+    /**
+     * Create the context for a new export
+     *
+     * @param process the process to export
+     * @param step the step of the export, can be null
+     * @return the context or null, if no configuration matches the project and step
+     */
+    public static ExportContext createContext(Process process, Step step) {
+        ExportConfiguration config = getConfiguration(process, step);
+        if (config == null) {
+            return null;
+        }
+        return new ExportContext(process, step, config);
+    }
+
+    /**
+     * Get the cached configuration for the project of the process and the step
+     *
+     * @return the configuration or null, if no configuration matches the project and step
+     */
+    private static ExportConfiguration getConfiguration(Process process, Step step) {
+        String stepName = step == null ? "*" : step.getTitel();
+        String projectName = process.getProjekt().getTitel();
+        ExportConfiguration config = PluginConfiguration.getConfiguration(projectName, stepName);
+        if (config == null) {
+            log.error("No configuration found for project " + projectName + " and step " + stepName);
+        }
+        return config;
+    }
+
+    /**
+     * Run an export. All state of the export is kept in the context, so this method can be called concurrently.
+     *
+     * @param context the export context
+     * @return true, if the export was successful
+     */
+    public boolean startExport(ExportContext context) throws IOException, InterruptedException, PreferencesException, WriteException,
+    SwapException, DAOException, TypeNotAllowedForParentException {
+        boolean success = false;
+        try {
+            success = runExport(context);
+            return success;
+        } finally {
+            ExportMetrics metrics = context.getMetrics();
+            metrics.finish(success);
+            log.info(metrics.toLogLine(context.getProcess().getId(), context.getProcess().getTitel()));
+            ExportStatistics.getInstance().add(metrics);
+        }
+    }
+
+    private boolean runExport(ExportContext context) throws IOException, InterruptedException, PreferencesException, WriteException,
+    SwapException, DAOException, TypeNotAllowedForParentException {
+        Process process = context.getProcess();
+        ExportMetrics metrics = context.getMetrics();
+        ExportConfiguration config = context.getConfiguration();
+        List<String> problems = context.getProblems();
+        Prefs prefs = context.getPrefs();
+        String destination = process.getProcessDataDirectory();
         String atsPpnBand = process.getTitel();
 
         /*
@@ -133,13 +187,8 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
          * --------------------------------
          */
         Fileformat gdzfile;
-        ExportFileformat newfile = MetadatenHelper.getExportFileformatByName(process.getProjekt().getFileFormatDmsExport(), process.getRegelsatz());
         try {
-            gdzfile = process.readMetadataFile();
-
-            newfile.setDigitalDocument(gdzfile.getDigitalDocument());
-            gdzfile = newfile;
-
+            gdzfile = context.getFileformat();
         } catch (Exception e) {
             Helper.setFehlerMeldung(Helper.getTranslation("exportError") + process.getTitel(), e);
             log.error("Export abgebrochen, xml-LeseFehler", e);
@@ -147,7 +196,8 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
             return false;
         }
 
-        trimAllMetadata(gdzfile.getDigitalDocument().getLogicalDocStruct());
+        MetadataTrimmer.trim(gdzfile.getDigitalDocument().getLogicalDocStruct());
+        metrics.stageFinished(ExportStage.READ_METADATA);
 
         /*
          * -------------------------------- Metadaten validieren
@@ -156,13 +206,21 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
 
         if (ConfigurationHelper.getInstance().isUseMetadataValidation()) {
             MetadatenVerifizierung mv = new MetadatenVerifizierung();
-            if (!mv.validate(gdzfile, prefs, process)) {
+            boolean valid = mv.validate(gdzfile, prefs, process);
+            metrics.stageFinished(ExportStage.VALIDATION);
+            if (!valid) {
                 problems.add("Export cancelled because of validation errors");
                 problems.addAll(mv.getProblems());
                 return false;
             }
         }
 
+        // list all folders once and check them against the pagination, before any file is written
+        if (!runPreflight(context, gdzfile.getDigitalDocument())) {
+            return false;
+        }
+        FileIndex fileIndex = context.getFileIndex();
+
         /*
          * -------------------------------- Speicherort vorbereiten und downloaden
          * --------------------------------
@@ -177,259 +235,631 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
 
         String metsFilename = benutzerHome.toString() + FileSystems.getDefault().getSeparator() + atsPpnBand + ".xml";
 
-        // write mets file
-        writeMetsFile(process, metsFilename, gdzfile, false);
-
-        // open written mets file
-        SAXBuilder parser = new SAXBuilder();
-        Document metsDoc = null;
-        try {
-            metsDoc = parser.build(metsFilename);
-        } catch (JDOMException | IOException e) {
-            Helper.setFehlerMeldung("error while parsing amd file");
-            log.error("error while parsing amd file", e);
-            return false;
+        // a submission package reads all files anyway, the checksums are calculated while the files are streamed into the package
+        boolean createPackage = config.isCreatePackage();
+        ChecksumCache checksumCache = null;
+        if (config.isUseChecksumCache() && !createPackage) {
+            checksumCache = ChecksumCache.load(Paths.get(destination, ChecksumCache.CACHE_FILE_NAME));
+        }
+        IncrementalExport incrementalExport = null;
+        if (config.isIncrementalExport() && !config.isVerifyChecksums() && !createPackage) {
+            incrementalExport = new IncrementalExport(benutzerHome, config.getHashedAlgorithms());
         }
+        // the progress journal lets a new run continue an interrupted export, a submission package is always written from the beginning
+        ExportJournal journal = createPackage ? null : openJournal(context, benutzerHome);
+        context.setJournal(journal);
+        // write mets file into a temporary file, it is streamed into its final location after the checksums are known
+        Path rawMetsFile = StorageProvider.getInstance().createTemporaryFile(atsPpnBand, ".xml");
+        // worker pool for hashing and the xml log, shared by all exports of a batch
+        ExecutorService sharedExecutor = checksumExecutor;
+        ExecutorService exportExecutor = sharedExecutor == null ? ChecksumCalculator.createExecutor(config.getChecksumThreads()) : sharedExecutor;
+        long hashingStart = System.nanoTime();
+        CompletableFuture<Map<String, String>> xmlLog = null;
+        try (ChecksumCalculator calculator = new ChecksumCalculator(exportExecutor, config.getHashedAlgorithms(), checksumCache,
+                config.isVerifyChecksums());
+                SubmissionPackage submissionPackage = createPackage ? new SubmissionPackage(Paths.get(config.getExportFolder(), atsPpnBand + ".tar"),
+                        atsPpnBand, config.getHashedAlgorithms(), config.getChecksumAlgorithms(), config.getStorageBackend()) : null) {
+            calculator.setStorageBackend(config.getStorageBackend());
+            if (config.isExportXmlLog()) {
+                // submitted first, so it does not wait for the hashing tasks in the pool
+                xmlLog = startXmlLogExport(context, Paths.get(destination, atsPpnBand + "_log.xml"), exportExecutor);
+            }
+            if (submissionPackage == null) {
+                // start hashing the master and alto files in the background while the mets file is generated
+                submitFileGroups(context, calculator, incrementalExport);
+            }
+
+            if (!writeMetsFile(context, metsFilename, rawMetsFile.toString(), gdzfile, false)) {
+                return false;
+            }
+
+            // collect all files of the filegroups master and alto
+            List<MetsFileReference> filesToHash;
+            try {
+                filesToHash = MetsPostProcessor.listFiles(rawMetsFile);
+            } catch (XMLStreamException e) {
+                Helper.setFehlerMeldung("error while parsing amd file");
+                log.error("error while parsing amd file", e);
+                return false;
+            }
+            List<Path> pathsToHash = new ArrayList<>(filesToHash.size());
+            for (MetsFileReference file : filesToHash) {
+                String filename = Paths.get(file.getHref()).getFileName().toString();
+                if ("MASTER".equals(file.getFileGroup())) {
+                    pathsToHash.add(Paths.get(process.getImagesOrigDirectory(false), filename));
+                } else {
+                    pathsToHash.add(Paths.get(process.getOcrAltoDirectory(), filename));
+                }
+            }
+            metrics.stageFinished(ExportStage.METS_FILE, StorageProvider.getInstance().getFileSize(rawMetsFile), 1);
+            // files that were submitted early, but are not referenced in the METS file
+            calculator.retain(pathsToHash);
+            // report all missing files at once instead of failing on the first one while hashing
+            List<Path> missingFiles = fileIndex.findMissingFiles(pathsToHash);
+            if (!missingFiles.isEmpty()) {
+                Helper.setFehlerMeldung("File not found, hash could not be calculated: " + missingFiles.get(0));
+                log.error("Files referenced in the METS file not found: " + missingFiles);
+                problems.add("Export cancelled, " + missingFiles.size() + " files not found: " + missingFiles);
+                return false;
+            }
 
-        Element fileSec = metsDoc.getRootElement().getChild("fileSec", metsNamespace);
-
-        List<Element> fileGroupList = fileSec.getChildren("fileGrp", metsNamespace);
-        for (Element fileGrp : fileGroupList) {
-            String fileGroupName = fileGrp.getAttributeValue("USE");
-            // compute hashes for files in filegroups master and alto
-            if ("MASTER".equals(fileGroupName) || "ALTO".equals(fileGroupName)) {
-                List<Element> filesInGrp = fileGrp.getChildren("file", metsNamespace);
-                for (Element file : filesInGrp) {
-                    Element flocat = file.getChild("FLocat", metsNamespace);
-                    Path filePath = Paths.get(flocat.getAttributeValue("href", xlink));
-                    String filename = filePath.getFileName().toString();
-                    Path pathToFile;
-                    if ("MASTER".equals(fileGroupName)) {
-                        pathToFile = Paths.get(process.getImagesOrigDirectory(false), filename);
+            MetsPostProcessor postProcessor = new MetsPostProcessor();
+            postProcessor.setCompact(config.isCompactMets());
+            metrics.setMetsFormat(config.isCompactMets() ? "compact" : "pretty");
+            String primaryAlgorithm = config.getPrimaryChecksumAlgorithm();
+            List<String> hrefs = new ArrayList<>(filesToHash.size() + 1);
+            for (MetsFileReference file : filesToHash) {
+                hrefs.add(file.getHref());
+            }
+            Map<String, String> logFileChecksums = null;
+            if (xmlLog != null) {
+                try {
+                    logFileChecksums = xmlLog.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+                    if (cause instanceof FileNotFoundException || cause instanceof NoSuchFileException) {
+                        Helper.setFehlerMeldung("File not found, hash could not be calculated: " + atsPpnBand + "_log.xml");
+                        log.error("File not found, hash could not be calculated: " + atsPpnBand + "_log.xml");
                     } else {
-                        pathToFile = Paths.get(process.getOcrAltoDirectory(), filename);
-                    }
-                    MessageDigest shamd = null;
-                    try {
-                        shamd = MessageDigest.getInstance("Sha-256");
-                    } catch (NoSuchAlgorithmException e) {
-                        log.error("Algorithm not supported", e);
+                        Helper.setFehlerMeldung("error while writing xml log");
+                        log.error("error while writing xml log", cause);
                     }
-                    try (InputStream is = StorageProvider.getInstance().newInputStream(pathToFile);
-                            DigestInputStream dis = new DigestInputStream(is, shamd)) {
-                        int n = 0;
-                        byte[] buffer = new byte[8092];
-                        while (n != -1) {
-                            n = dis.read(buffer);
-                        }
-                    } catch (FileNotFoundException | NoSuchFileException e) {
-                        Helper.setFehlerMeldung("File not found, hash could not be calculated: " + pathToFile.toString());
-                        log.error("File not found, hash could not be calculated: " + pathToFile.toString());
-                        return false;
-                    }
-                    String hash = getShaString(shamd);
-                    file.setAttribute("CHECKSUM", hash);
-                    file.setAttribute("CHECKSUMTYPE", "SHA-256");
-
+                    return false;
                 }
+                // add new fileGroup for xml log
+                postProcessor.setLogFile("submissionDocumentation/" + atsPpnBand + "_log.xml", logFileChecksums.get(primaryAlgorithm));
+            }
 
+            // wait until all checksums are calculated
+            List<Map<String, String>> hashes;
+            try {
+                if (submissionPackage != null) {
+                    hashes = submissionPackage.addPayloadFiles(filesToHash, pathsToHash);
+                } else {
+                    hashes = calculator.calculateChecksums(pathsToHash);
+                }
+            } catch (FileNotFoundException | NoSuchFileException e) {
+                Helper.setFehlerMeldung("File not found, hash could not be calculated: " + e.getMessage());
+                log.error("File not found, hash could not be calculated: " + e.getMessage());
+                saveChecksumCache(checksumCache, false);
+                return false;
             }
-        }
-        if (exportXmlLog) {
-            XsltPreparatorMetadata xmlExport = new XsltPreparatorMetadata();
-            String logFileName = benutzerHome.toString() + FileSystems.getDefault().getSeparator() + atsPpnBand + "_log.xml";
-            xmlExport.startExport(process, logFileName);
-
-            // add new fileGroup for xml log
-            Element fileGroup = new Element("fileGrp", metsNamespace);
-            fileGroup.setAttribute("USE", "LOG");
-            Element fileElement = new Element("file", metsNamespace);
-            fileElement.setAttribute("ID", "LOGFILE_0001");
-            fileElement.setAttribute("MIMETYPE", "application/xml");
-            fileGroup.addContent(fileElement);
-            Element flocat = new Element("FLocat", metsNamespace);
-            flocat.setAttribute("LOCTYPE", "URL");
-            flocat.setAttribute("href", "submissionDocumentation/" + atsPpnBand + "_log.xml", xlink);
-            fileElement.addContent(flocat);
-            fileSec.addContent(fileGroup);
-
-            Element mainDocstructElement = metsDoc.getRootElement().getChildren("structMap", metsNamespace).get(0).getChild("div", metsNamespace);
-            Element fptr = new Element("fptr", metsNamespace);
-            fptr.setAttribute("FILEID", "LOGFILE_0001");
-            if (mainDocstructElement.getChildren().isEmpty()) {
-                mainDocstructElement.addContent(fptr);
+            saveChecksumCache(checksumCache, true);
+            if (journal != null) {
+                journal.addStage(ExportStage.CHECKSUMS);
+            }
+            if (submissionPackage != null) {
+                metrics.awaitedStageFinished(ExportStage.CHECKSUMS, hashingStart, submissionPackage.getBytesWritten(),
+                        submissionPackage.getNumberOfFiles());
             } else {
-                mainDocstructElement.addContent(0, fptr);
+                metrics.awaitedStageFinished(ExportStage.CHECKSUMS, hashingStart, calculator.getBytesHashed(), calculator.getFilesHashed());
+            }
+            metrics.setFilesFromCache(calculator.getFilesFromCache());
+            Map<String, String> checksums = new HashMap<>();
+            for (int i = 0; i < filesToHash.size(); i++) {
+                checksums.put(filesToHash.get(i).getId(), hashes.get(i).get(primaryAlgorithm));
+            }
+            if (logFileChecksums != null) {
+                hrefs.add("submissionDocumentation/" + atsPpnBand + "_log.xml");
+                hashes.add(logFileChecksums);
             }
-            MessageDigest shamd = null;
+
             try {
-                shamd = MessageDigest.getInstance("Sha-256");
-            } catch (NoSuchAlgorithmException e) {
-                log.error("Algorithm not supported", e);
-            }
-            try (InputStream is = StorageProvider.getInstance().newInputStream(Paths.get(logFileName));
-                    DigestInputStream dis = new DigestInputStream(is, shamd)) {
-                int n = 0;
-                byte[] buffer = new byte[8092];
-                while (n != -1) {
-                    n = dis.read(buffer);
+                config.getOutputWriter().write(Paths.get(metsFilename), out -> postProcessor.process(rawMetsFile, out, checksums, primaryAlgorithm));
+                // all other algorithms are written into separate manifest files
+                for (String algorithm : config.getChecksumAlgorithms().subList(1, config.getChecksumAlgorithms().size())) {
+                    writeChecksumManifest(config.getOutputWriter(), Paths.get(destination, getChecksumManifestName(algorithm)), algorithm, hrefs,
+                            hashes);
                 }
-            } catch (FileNotFoundException | NoSuchFileException e) {
-                Helper.setFehlerMeldung("File not found, hash could not be calculated: " + logFileName);
-                log.error("File not found, hash could not be calculated: " + logFileName);
+                metrics.stageFinished(ExportStage.POST_PROCESSING, StorageProvider.getInstance().getFileSize(Paths.get(metsFilename)), 1);
+                if (journal != null) {
+                    journal.addStage(ExportStage.POST_PROCESSING);
+                }
+                if (config.isCompressMets()) {
+                    Path compressedFile = Paths.get(metsFilename + ".gz");
+                    writeCompressedCopy(config.getOutputWriter(), Paths.get(metsFilename), compressedFile);
+                    metrics.stageFinished(ExportStage.METS_COMPRESSION, StorageProvider.getInstance().getFileSize(compressedFile), 1);
+                }
+            } catch (IOException | XMLStreamException e) {
+                Helper.setFehlerMeldung("error while writing mets file");
+                log.error("error while writing mets file", e);
                 return false;
             }
-            String hash = getShaString(shamd);
-            fileElement.setAttribute("CHECKSUM", hash);
-            fileElement.setAttribute("CHECKSUMTYPE", "SHA-256");
+            if (incrementalExport != null) {
+                try {
+                    String metsChecksum = ChecksumCalculator.calculateChecksums(Paths.get(metsFilename), Collections.singletonList(primaryAlgorithm))
+                            .get(primaryAlgorithm);
+                    incrementalExport.finish(pathsToHash, hashes, primaryAlgorithm, metsChecksum);
+                } catch (IOException | RuntimeException e) {
+                    // not fatal, the next export hashes all files again
+                    log.error("Cannot write export state", e);
+                }
+            }
+
+            String manifestPath = benutzerHome.toString() + FileSystems.getDefault().getSeparator() + "submission-manifest.txt";
+            if (config.isCreateManifest()) {
+                writeSubmissionManifest(context, manifestPath, gdzfile);
+                metrics.stageFinished(ExportStage.MANIFEST);
+                if (journal != null) {
+                    journal.addStage(ExportStage.MANIFEST);
+                }
+            }
+
+            if (submissionPackage != null) {
+                try {
+                    submissionPackage.addFile(atsPpnBand + ".xml", Paths.get(metsFilename));
+                    Path anchorFile = Paths.get(metsFilename.replace(".xml", "_anchor.xml"));
+                    if (StorageProvider.getInstance().isFileExists(anchorFile)) {
+                        submissionPackage.addFile(atsPpnBand + "_anchor.xml", anchorFile);
+                    }
+                    if (logFileChecksums != null) {
+                        submissionPackage.addFile("submissionDocumentation/" + atsPpnBand + "_log.xml",
+                                Paths.get(destination, atsPpnBand + "_log.xml"));
+                    }
+                    if (config.isCreateManifest()) {
+                        submissionPackage.addFile("submission-manifest.txt", Paths.get(manifestPath));
+                    }
+                    submissionPackage.commit();
+                    metrics.stageFinished(ExportStage.PACKAGE, submissionPackage.getBytesWritten(), submissionPackage.getNumberOfFiles());
+                } catch (IOException e) {
+                    Helper.setFehlerMeldung("error while writing submission package");
+                    log.error("error while writing submission package", e);
+                    return false;
+                }
+            }
+        } finally {
+            StorageProvider.getInstance().deleteDir(rawMetsFile);
+            if (xmlLog != null) {
+                // do not return while the log file is still written, if the export was cancelled
+                try {
+                    xmlLog.join();
+                } catch (CompletionException e) {
+                    // already reported above
+                }
+            }
+            if (exportExecutor != sharedExecutor) {
+                exportExecutor.shutdownNow();
+            }
+            closeJournal(journal);
         }
-        XMLOutputter outputter = new XMLOutputter(Format.getPrettyFormat());
-        try {
-            FileOutputStream output = new FileOutputStream(metsFilename);
-            outputter.output(metsDoc, output);
-        } catch (IOException e) {
-            Helper.setFehlerMeldung("error while writing mets file");
-            log.error("error while writing mets file", e);
-            return false;
+        if (journal != null) {
+            // the export is complete, the next export starts from the beginning
+            try {
+                journal.delete();
+            } catch (IOException e) {
+                log.error("Cannot delete export journal", e);
+            }
         }
-        String manifestPath = benutzerHome.toString() + FileSystems.getDefault().getSeparator() + "submission-manifest.txt";
-        if (createManifest) {
-            writeSubmissionManifest(manifestPath, gdzfile);
+        if (config.isSendCallback()) {
+            sendCallback(context);
         }
         return true;
     }
 
-    private void writeSubmissionManifest(String manifestPath, Fileformat gdzfile) throws PreferencesException {
-        VariableReplacer replacer = new VariableReplacer(gdzfile.getDigitalDocument(), prefs, step.getProzess(), step);
-        //        StringBuilder manifest = new StringBuilder();
-        SubmissionManifest manifest = new SubmissionManifest();
-        manifest.setSubmissionManifestVersion(getSubmissionManifestValue(replacer, "SubmissionManifestVersion", "2.0"));
-        manifest.setSubmissionSet(getSubmissionManifestValue(replacer, "SubmissionSet", ""));
-        manifest.setSubmittingOrganization(getSubmissionManifestValue(replacer, "SubmittingOrganization", ""));
-        manifest.setOrganizationIdentifier(getSubmissionManifestValue(replacer, "OrganizationIdentifier", ""));
-        manifest.setContractNumber(getSubmissionManifestValue(replacer, "ContractNumber", ""));
-        manifest.setContact(getSubmissionManifestValue(replacer, "Contact", ""));
-        manifest.setContactRole(getSubmissionManifestValue(replacer, "ContactRole", ""));
-        manifest.setContactEmail(getSubmissionManifestValue(replacer, "ContactEmail", ""));
-        manifest.setTransferCurator(getSubmissionManifestValue(replacer, "TransferCurator", ""));
-        manifest.setTransferCuratorEmail(getSubmissionManifestValue(replacer, "TransferCuratorEmail", ""));
-        manifest.setSubmissionName(getSubmissionManifestValue(replacer, "SubmissionName", ""));
-        manifest.setSubmissionDescription(getSubmissionManifestValue(replacer, "SubmissionDescription", ""));
-        manifest.setRightsHolder(getSubmissionManifestValue(replacer, "RightsHolder", "N/A"));
-        manifest.setRights(getSubmissionManifestValue(replacer, "Rights", "http://id.loc.gov/vocabulary/preservation/copyrightStatus/pub"));
-        manifest.setRightsDescription(getSubmissionManifestValue(replacer, "RightsDescription", ""));
-        manifest.setLicense(getSubmissionManifestValue(replacer, "License", "https://creativecommons.org/publicdomain/mark/1.0/"));
-        manifest.setAccessRights(getSubmissionManifestValue(replacer, "AccessRights", "public"));
-        manifest.setDataSourceSystem(
-                getSubmissionManifestValue(replacer, "DataSourceSystem", ConfigurationHelper.getInstance().getApplicationHeaderTitle() + " - "
-                        + GoobiVersion.getVersion() + " - " + GoobiVersion.getBuildDate()));
-        manifest.setMetadataFile(getSubmissionManifestValue(replacer, "MetadataFile", step.getProzess().getTitel() + ".xml"));
-        manifest.setMetadataFileFormat(getSubmissionManifestValue(replacer, "MetadataFileFormat", "http://www.loc.gov/METS/"));
+    /**
+     * Open the progress journal of the process. The journal is bound to the current metadata file and checksum algorithms, a journal of an
+     * interrupted export is only continued, if neither has changed since.
+     *
+     * @return the journal or null, if the journal cannot be written
+     */
+    private ExportJournal openJournal(ExportContext context, Path folder) {
+        Process process = context.getProcess();
+        try {
+            Path metadataFile = Paths.get(process.getMetadataFilePath());
+            String fingerprint = StorageProvider.getInstance().getFileSize(metadataFile) + ":"
+                    + StorageProvider.getInstance().getLastModifiedDate(metadataFile) + ":"
+                    + String.join(",", context.getConfiguration().getHashedAlgorithms());
+            ExportJournal journal = ExportJournal.open(folder.resolve(ExportJournal.JOURNAL_FILE_NAME), fingerprint);
+            if (journal.isResumed()) {
+                log.info("Resuming interrupted export of process " + process.getId() + ", " + journal.getNumberOfFiles()
+                + " checksums are known, finished stages: " + journal.getCompletedStages());
+            }
+            return journal;
+        } catch (IOException | InterruptedException | SwapException e) {
+            // not fatal, the export runs without journal
+            log.error("Cannot open export journal of process " + process.getId(), e);
+            return null;
+        }
+    }
 
-        CallbackParams param = new CallbackParams();
-        param.setEndpoint(submissionParameter.get("endpoint").get(0));
-        param.setProcessId(step.getProzess().getId());
-        param.setStepId(step.getId());
-        manifest.setCallbackParams(param);
+    private void closeJournal(ExportJournal journal) {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("Cannot close export journal", e);
+            }
+        }
+    }
 
-        try {
-            ObjectMapper om = new ObjectMapper(new YAMLFactory());
-            om.writeValue(new File(manifestPath), manifest);
-            //            Files.write(Paths.get(manifestPath), manifest.toString().getBytes());
-        } catch (IOException e) {
-            log.error(e);
+    /**
+     * List the MASTER, ALTO and media folders and the folders of the optional file groups once. If the images are validated, the number of images
+     * is compared with the pagination, so a mismatch is reported before the METS file is written.
+     *
+     * UGH creates the file groups from the folders as Goobi sees them. If the files are read from an object store, the listings of the object
+     * store are compared with these folders, so the METS file cannot reference other files than the ones that get hashed and copied.
+     *
+     * @param context the export context, gets the created index
+     * @param dd the digital document
+     * @return false, if the images do not match the pagination or the object store
+     */
+    private boolean runPreflight(ExportContext context, DigitalDocument dd) throws IOException, InterruptedException, SwapException, DAOException {
+        Process process = context.getProcess();
+        FileIndex fileIndex = new FileIndex(context.getConfiguration().getStorageBackend());
+        int numberOfFiles = fileIndex.addFolder(process.getImagesOrigDirectory(false), NIOFileUtils.DATA_FILTER).size();
+        numberOfFiles += fileIndex.addFolder(process.getOcrAltoDirectory(), null).size();
+        List<FileIndex.Entry> images = fileIndex.addFolder(process.getImagesTifDirectory(true), NIOFileUtils.DATA_FILTER);
+        List<String> filegroupFolders = new ArrayList<>();
+        List<ProjectFileGroup> filegroups = process.getProjekt().getFilegroups();
+        if (filegroups != null) {
+            for (ProjectFileGroup pfg : filegroups) {
+                if (("MASTER".equals(pfg.getName()) || "ALTO".equals(pfg.getName())) && StringUtils.isNotBlank(pfg.getFolder())) {
+                    String folder = process.getMethodFromName(pfg.getFolder());
+                    if (folder != null) {
+                        fileIndex.addFolder(folder, null);
+                        filegroupFolders.add(folder);
+                    }
+                }
+            }
+        }
+        context.setFileIndex(fileIndex);
+
+        if (!(context.getConfiguration().getStorageBackend() instanceof LocalStorageBackend)) {
+            List<String> differences = new ArrayList<>();
+            differences.addAll(compareWithProcessFolder(fileIndex, process.getImagesOrigDirectory(false), NIOFileUtils.DATA_FILTER));
+            differences.addAll(compareWithProcessFolder(fileIndex, process.getOcrAltoDirectory(), null));
+            differences.addAll(compareWithProcessFolder(fileIndex, process.getImagesTifDirectory(true), NIOFileUtils.DATA_FILTER));
+            for (String folder : filegroupFolders) {
+                differences.addAll(compareWithProcessFolder(fileIndex, folder, null));
+            }
+            if (!differences.isEmpty()) {
+                Helper.setFehlerMeldung("The object store does not match the process folders: " + differences.get(0));
+                log.error("The object store does not match the process folders: " + differences);
+                context.getProblems().add("Export cancelled, " + differences.size() + " files differ between object store and process folders: "
+                        + differences);
+                return false;
+            }
+        }
+
+        // without pagination, the pagination is created from the images while the METS file is written
+        if (ConfigurationHelper.getInstance().isExportValidateImages() && !images.isEmpty() && dd.getPhysicalDocStruct() != null
+                && dd.getPhysicalDocStruct().getAllChildren() != null && !dd.getPhysicalDocStruct().getAllChildren().isEmpty()) {
+            int sizeOfPagination = dd.getPhysicalDocStruct().getAllChildren().size();
+            if (sizeOfPagination != images.size()) {
+                String[] param = { String.valueOf(sizeOfPagination), String.valueOf(images.size()) };
+                Helper.setFehlerMeldung(Helper.getTranslation("imagePaginationError", param));
+                context.getProblems().add("Export cancelled, the pagination has " + sizeOfPagination + " pages, but there are " + images.size() + " images");
+                return false;
+            }
         }
+        context.getMetrics().stageFinished(ExportStage.PREFLIGHT, 0, numberOfFiles);
+        return true;
+    }
 
+    /**
+     * Compare the indexed files of a folder with the folder as Goobi sees it through the {@link StorageProvider}
+     *
+     * @return a description of each file that is only in one of the listings
+     */
+    private static List<String> compareWithProcessFolder(FileIndex fileIndex, String folder, DirectoryStream.Filter<Path> filter) {
+        Set<String> indexedFiles = new HashSet<>();
+        for (FileIndex.Entry entry : fileIndex.getFiles(folder)) {
+            indexedFiles.add(entry.getPath().getFileName().toString());
+        }
+        Set<String> processFiles = new HashSet<>();
+        if (StorageProvider.getInstance().isFileExists(Paths.get(folder))) {
+            List<Path> files = filter == null ? StorageProvider.getInstance().listFiles(folder) : StorageProvider.getInstance().listFiles(folder, filter);
+            for (Path file : files) {
+                processFiles.add(file.getFileName().toString());
+            }
+        }
+        List<String> differences = new ArrayList<>();
+        for (String name : indexedFiles) {
+            if (!processFiles.contains(name)) {
+                differences.add(Paths.get(folder, name) + " is only in the object store");
+            }
+        }
+        for (String name : processFiles) {
+            if (!indexedFiles.contains(name)) {
+                differences.add(Paths.get(folder, name) + " is missing in the object store");
+            }
+        }
+        return differences;
     }
 
-    private String getSubmissionManifestValue(VariableReplacer replacer, String parameter, String defaultValue) {
-        List<String> possibleParameter = submissionParameter.get(parameter); // get configured parameter
-        if (possibleParameter != null) {
-            for (String param : possibleParameter) {
-                if (StringUtils.isNotBlank(param)) {
-                    if (param.contains("${")) {
-                        String newValue = replacer.replace(param);
-                        if (StringUtils.isNotBlank(newValue) && !newValue.equals(param)) {
-                            defaultValue = newValue;
-                            break;
-                        }
-                    } else {
-                        defaultValue = param;
+    /**
+     * Write the XML log in the background. The log is created from the data of the process by Goobi itself and does not depend on the METS file, so
+     * it is written while the METS file is generated and the images are hashed. A log file written by an interrupted export is reused.
+     *
+     * @param context the export context
+     * @param logFile the log file to write
+     * @param executor the worker pool of the export
+     * @return the checksums of the log file
+     */
+    private static CompletableFuture<Map<String, String>> startXmlLogExport(ExportContext context, Path logFile, ExecutorService executor) {
+        long start = System.nanoTime();
+        ExportJournal journal = context.getJournal();
+        List<String> algorithms = context.getConfiguration().getChecksumAlgorithms();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                StorageProvider storage = StorageProvider.getInstance();
+                if (journal != null && journal.isCompleted(ExportStage.XML_LOG) && storage.isFileExists(logFile)) {
+                    // written by the interrupted export
+                    Map<String, String> checksums = journal.getChecksums(logFile, storage.getFileSize(logFile), storage.getLastModifiedDate(logFile),
+                            algorithms);
+                    if (checksums != null) {
+                        return checksums;
                     }
                 }
+                AtomicFileWriter outputWriter = context.getConfiguration().getOutputWriter();
+                Path tempFile = AtomicFileWriter.getTempFile(logFile);
+                try {
+                    new XsltPreparatorMetadata().startExport(context.getProcess(), tempFile.toString());
+                    outputWriter.commit(tempFile, logFile);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                }
+                Map<String, String> checksums = ChecksumCalculator.calculateChecksums(logFile, algorithms);
+                long size = storage.getFileSize(logFile);
+                context.getMetrics().backgroundStageFinished(ExportStage.XML_LOG, start, size, 1);
+                if (journal != null) {
+                    journal.addFile(logFile, size, storage.getLastModifiedDate(logFile), checksums);
+                    journal.addStage(ExportStage.XML_LOG);
+                }
+                return checksums;
+            } catch (Exception e) {
+                throw new CompletionException(e);
             }
+        }, executor);
+    }
+
+    /**
+     * Add a notification about the finished submission to the callback queue. The notification is delivered in the background, so the export does
+     * not wait for the endpoint.
+     */
+    private void sendCallback(ExportContext context) {
+        String endpoint = context.getConfiguration().getCallbackEndpoint();
+        if (endpoint == null) {
+            log.warn("No callback endpoint configured, notification for process " + context.getProcess().getId() + " is not sent");
+            return;
+        }
+        CallbackNotification notification = new CallbackNotification();
+        notification.setEndpoint(endpoint);
+        notification.setProcessId(context.getProcess().getId());
+        notification.setProcessTitle(context.getProcess().getTitel());
+        if (context.getStep() != null) {
+            notification.setStepId(context.getStep().getId());
+        }
+        notification.setCreated(System.currentTimeMillis());
+        try {
+            CallbackDispatcher.getInstance().submit(notification);
+        } catch (IOException | RuntimeException e) {
+            // the export itself was successful, e.g. a stopped dispatcher rejects the delivery
+            log.error("Cannot add callback notification to the queue", e);
         }
-        return defaultValue;
-        //        manifest.append(parameter);
-        //        manifest.append(": ");
-        //        manifest.append(defaultValue);
-        //        manifest.append(System.lineSeparator());
     }
 
-    private static String getShaString(MessageDigest messageDigest) {
-        BigInteger bigInt = new BigInteger(1, messageDigest.digest());
-        StringBuilder sha256 = new StringBuilder(bigInt.toString(16).toLowerCase());
-        while (sha256.length() < 64) {
-            sha256.insert(0, 0);
+    /**
+     * Get the name of the manifest file for an additional checksum algorithm, e.g. manifest-sha512.txt
+     */
+    static String getChecksumManifestName(String algorithm) {
+        return "manifest-" + algorithm.toLowerCase(Locale.ROOT).replace("-", "") + ".txt";
+    }
+
+    private void writeChecksumManifest(AtomicFileWriter outputWriter, Path manifestFile, String algorithm, List<String> hrefs,
+            List<Map<String, String>> checksums) throws IOException {
+        outputWriter.write(manifestFile, out -> {
+            Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+            for (int i = 0; i < hrefs.size(); i++) {
+                writer.write(checksums.get(i).get(algorithm));
+                writer.write("  ");
+                writer.write(hrefs.get(i));
+                writer.write(System.lineSeparator());
+            }
+            writer.flush();
+        });
+    }
+
+    /**
+     * Write a gzip compressed copy of a file, e.g. for the transfer of large METS files
+     */
+    static void writeCompressedCopy(AtomicFileWriter outputWriter, Path file, Path compressedFile) throws IOException {
+        outputWriter.write(compressedFile, out -> {
+            GZIPOutputStream gzip = new GZIPOutputStream(out, 64 * 1024);
+            Files.copy(file, gzip);
+            gzip.finish();
+        });
+    }
+
+    /**
+     * Start the checksum calculation of the files of the MASTER and ALTO file groups before the METS file is written. Only file groups that UGH adds
+     * to the METS file are used, and only the files UGH references: one file per image of the media folder, with the suffix of the file group.
+     */
+    private void submitFileGroups(ExportContext context, ChecksumCalculator calculator, IncrementalExport incrementalExport)
+            throws IOException, InterruptedException, SwapException, DAOException {
+        Process process = context.getProcess();
+        FileIndex fileIndex = context.getFileIndex();
+        List<ProjectFileGroup> filegroups = process.getProjekt().getFilegroups();
+        List<FileIndex.Entry> images = fileIndex.getFiles(process.getImagesTifDirectory(true));
+        if (filegroups == null || images == null) {
+            return;
+        }
+        Set<String> pageNames = new HashSet<>();
+        for (FileIndex.Entry image : images) {
+            pageNames.add(getBaseName(image.getPath().getFileName().toString()));
+        }
+        for (ProjectFileGroup pfg : filegroups) {
+            String folder;
+            if ("MASTER".equals(pfg.getName())) {
+                folder = process.getImagesOrigDirectory(false);
+            } else if ("ALTO".equals(pfg.getName())) {
+                folder = process.getOcrAltoDirectory();
+            } else {
+                continue;
+            }
+            // same condition as in writeMetsFile
+            if (StringUtils.isNotBlank(pfg.getFolder())) {
+                String groupFolder = process.getMethodFromName(pfg.getFolder());
+                if (groupFolder == null || !hasFiles(fileIndex, Paths.get(groupFolder))) {
+                    continue;
+                }
+            }
+            List<FileIndex.Entry> folderFiles = fileIndex.getFiles(folder);
+            if (folderFiles == null || StringUtils.isBlank(pfg.getSuffix())) {
+                continue;
+            }
+            List<FileIndex.Entry> files = new ArrayList<>();
+            for (FileIndex.Entry file : folderFiles) {
+                String filename = file.getPath().getFileName().toString();
+                String baseName = getBaseName(filename);
+                if (filename.equals(baseName + "." + pfg.getSuffix()) && pageNames.contains(baseName)) {
+                    files.add(file);
+                }
+            }
+            submitFiles(context, calculator, incrementalExport, files);
         }
-        return sha256.toString();
+    }
+
+    private static String getBaseName(String filename) {
+        int index = filename.lastIndexOf('.');
+        return index > 0 ? filename.substring(0, index) : filename;
     }
 
     /**
-     * run through all metadata and children of given docstruct to trim the strings calls itself recursively
+     * Start the checksum calculation of the given files. Checksums from the journal of an interrupted export are used directly, all new checksums
+     * are added to the journal as soon as they are known.
      */
-    private void trimAllMetadata(DocStruct inStruct) {
-        /* trimm all metadata values */
-        if (inStruct.getAllMetadata() != null) {
-            for (Metadata md : inStruct.getAllMetadata()) {
-                if (md.getValue() != null) {
-                    md.setValue(md.getValue().trim());
+    private void submitFiles(ExportContext context, ChecksumCalculator calculator, IncrementalExport incrementalExport, List<FileIndex.Entry> files)
+            throws IOException {
+        ExportJournal journal = context.getJournal();
+        List<String> algorithms = context.getConfiguration().getHashedAlgorithms();
+        for (FileIndex.Entry file : files) {
+            Map<String, String> journalChecksums = null;
+            if (journal != null) {
+                journalChecksums = journal.getChecksums(file.getPath(), file.getSize(), file.getLastModified(), algorithms);
+                if (journalChecksums != null) {
+                    calculator.preset(file.getPath(), journalChecksums);
                 }
             }
+            CompletableFuture<Map<String, String>> checksums = incrementalExport == null ? calculator.submit(file)
+                    : incrementalExport.submit(calculator, file.getPath(), file.getSize(), file.getLastModified());
+            if (journal != null && journalChecksums == null) {
+                checksums.thenAccept(result -> journal.addFile(file.getPath(), file.getSize(), file.getLastModified(), result));
+            }
         }
+    }
 
-        /* run through all children of docstruct */
-        if (inStruct.getAllChildren() != null) {
-            for (DocStruct child : inStruct.getAllChildren()) {
-                trimAllMetadata(child);
+    private void saveChecksumCache(ChecksumCache checksumCache, boolean prune) {
+        if (checksumCache != null) {
+            try {
+                checksumCache.save(prune);
+            } catch (IOException e) {
+                log.error("Cannot write checksum cache", e);
+            }
+        }
+    }
+
+    private void writeSubmissionManifest(ExportContext context, String manifestPath, Fileformat gdzfile) throws PreferencesException {
+        Process process = context.getProcess();
+        Map<String, List<String>> submissionParameter = context.getConfiguration().getSubmissionParameter();
+        Map<String, ManifestTemplate> templates = context.getConfiguration().getManifestTemplates();
+        // the replacer is only needed, if a parameter contains a placeholder
+        DigitalDocument digitalDocument = gdzfile.getDigitalDocument();
+        Supplier<VariableReplacer> replacer = () -> context.getVariableReplacer(digitalDocument);
+        //        StringBuilder manifest = new StringBuilder();
+        SubmissionManifest manifest = new SubmissionManifest();
+        manifest.setSubmissionManifestVersion(getSubmissionManifestValue(templates, replacer, "SubmissionManifestVersion", "2.0"));
+        manifest.setSubmissionSet(getSubmissionManifestValue(templates, replacer, "SubmissionSet", ""));
+        manifest.setSubmittingOrganization(getSubmissionManifestValue(templates, replacer, "SubmittingOrganization", ""));
+        manifest.setOrganizationIdentifier(getSubmissionManifestValue(templates, replacer, "OrganizationIdentifier", ""));
+        manifest.setContractNumber(getSubmissionManifestValue(templates, replacer, "ContractNumber", ""));
+        manifest.setContact(getSubmissionManifestValue(templates, replacer, "Contact", ""));
+        manifest.setContactRole(getSubmissionManifestValue(templates, replacer, "ContactRole", ""));
+        manifest.setContactEmail(getSubmissionManifestValue(templates, replacer, "ContactEmail", ""));
+        manifest.setTransferCurator(getSubmissionManifestValue(templates, replacer, "TransferCurator", ""));
+        manifest.setTransferCuratorEmail(getSubmissionManifestValue(templates, replacer, "TransferCuratorEmail", ""));
+        manifest.setSubmissionName(getSubmissionManifestValue(templates, replacer, "SubmissionName", ""));
+        manifest.setSubmissionDescription(getSubmissionManifestValue(templates, replacer, "SubmissionDescription", ""));
+        manifest.setRightsHolder(getSubmissionManifestValue(templates, replacer, "RightsHolder", "N/A"));
+        manifest.setRights(getSubmissionManifestValue(templates, replacer, "Rights", "http://id.loc.gov/vocabulary/preservation/copyrightStatus/pub"));
+        manifest.setRightsDescription(getSubmissionManifestValue(templates, replacer, "RightsDescription", ""));
+        manifest.setLicense(getSubmissionManifestValue(templates, replacer, "License", "https://creativecommons.org/publicdomain/mark/1.0/"));
+        manifest.setAccessRights(getSubmissionManifestValue(templates, replacer, "AccessRights", "public"));
+        manifest.setDataSourceSystem(
+                getSubmissionManifestValue(templates, replacer, "DataSourceSystem", ConfigurationHelper.getInstance().getApplicationHeaderTitle() + " - "
+                        + GoobiVersion.getVersion() + " - " + GoobiVersion.getBuildDate()));
+        manifest.setMetadataFile(getSubmissionManifestValue(templates, replacer, "MetadataFile", process.getTitel() + ".xml"));
+        manifest.setMetadataFileFormat(getSubmissionManifestValue(templates, replacer, "MetadataFileFormat", "http://www.loc.gov/METS/"));
+
+        // without an endpoint there is nothing to call back
+        String endpoint = context.getConfiguration().getCallbackEndpoint();
+        if (endpoint != null) {
+            CallbackParams param = new CallbackParams();
+            param.setEndpoint(endpoint);
+            param.setProcessId(process.getId());
+            if (context.getStep() != null) {
+                param.setStepId(context.getStep().getId());
             }
+            manifest.setCallbackParams(param);
+        }
+
+        try {
+            context.getConfiguration().getOutputWriter().write(Paths.get(manifestPath), out -> YAML_MAPPER.writeValue(out, manifest));
+            //            Files.write(Paths.get(manifestPath), manifest.toString().getBytes());
+        } catch (IOException e) {
+            log.error(e);
+        }
+
+    }
+
+    private String getSubmissionManifestValue(Map<String, ManifestTemplate> templates, Supplier<VariableReplacer> replacer, String parameter,
+            String defaultValue) {
+        ManifestTemplate template = templates.get(parameter); // get configured parameter
+        if (template == null) {
+            return defaultValue;
         }
+        return template.resolve(replacer, defaultValue);
     }
 
     public void fulltextDownload(Process process, Path benutzerHome, String atsPpnBand)
             throws IOException, InterruptedException, SwapException, DAOException {
 
-        // download sources
-        Path sources = Paths.get(process.getSourceDirectory());
-        if (Files.exists(sources) && !StorageProvider.getInstance().list(sources.toString()).isEmpty()) {
-            Path destination = Paths.get(benutzerHome.toString(), atsPpnBand + "_src");
-            if (!Files.exists(destination)) {
-                Files.createDirectories(destination);
-            }
-            List<Path> dateien = StorageProvider.getInstance().listFiles(process.getSourceDirectory());
-            for (Path dir : dateien) {
-                Path meinZiel = Paths.get(destination.toString(), dir.getFileName().toString());
-                Files.copy(dir, meinZiel, NIOFileUtils.STANDARD_COPY_OPTIONS);
-            }
-        }
-
-        Path ocr = Paths.get(process.getOcrDirectory());
-        if (Files.exists(ocr)) {
-            List<Path> folder = StorageProvider.getInstance().listFiles(process.getOcrDirectory());
-            for (Path dir : folder) {
-                if (Files.isDirectory(dir) && !StorageProvider.getInstance().list(dir.toString()).isEmpty()) {
-                    String suffix = dir.getFileName().toString().substring(dir.getFileName().toString().lastIndexOf('_'));
-                    Path destination = Paths.get(benutzerHome.toString(), atsPpnBand + suffix);
-                    if (!Files.exists(destination)) {
-                        Files.createDirectories(destination);
-                    }
-                    List<Path> files = StorageProvider.getInstance().listFiles(dir.toString());
-                    for (Path file : files) {
-                        Path target = Paths.get(destination.toString(), file.getFileName().toString());
-                        Files.copy(file, target, NIOFileUtils.STANDARD_COPY_OPTIONS);
+        try (FileCopier copier = createFileCopier(process)) {
+            // download sources
+            Path sources = Paths.get(process.getSourceDirectory());
+            copier.copyFolder(sources, Paths.get(benutzerHome.toString(), atsPpnBand + "_src"), null);
+
+            Path ocr = Paths.get(process.getOcrDirectory());
+            if (StorageProvider.getInstance().isFileExists(ocr)) {
+                List<Path> folder = StorageProvider.getInstance().listFiles(process.getOcrDirectory());
+                for (Path dir : folder) {
+                    if (StorageProvider.getInstance().isDirectory(dir)) {
+                        String suffix = dir.getFileName().toString().substring(dir.getFileName().toString().lastIndexOf('_'));
+                        copier.copyFolder(dir, Paths.get(benutzerHome.toString(), atsPpnBand + suffix), null);
                     }
                 }
             }
+            copier.waitForCompletion();
         }
     }
 
@@ -447,42 +877,44 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
          * kopieren --------------------------------
          */
         Path zielTif = Paths.get(benutzerHome.toString(), atsPpnBand + ordnerEndung);
-        if (Files.exists(tifOrdner) && !StorageProvider.getInstance().list(tifOrdner.toString()).isEmpty()) {
-
-            /* bei Agora-Import einfach den Ordner anlegen */
-            if (!Files.exists(zielTif)) {
-                Files.createDirectories(zielTif);
-            }
-
-            /* jetzt den eigentlichen Kopiervorgang */
-            List<Path> files = StorageProvider.getInstance().listFiles(tifOrdner.toString(), NIOFileUtils.DATA_FILTER);
-            for (Path file : files) {
-                Path target = Paths.get(zielTif.toString(), file.getFileName().toString());
-                Files.copy(file, target, NIOFileUtils.STANDARD_COPY_OPTIONS);
-            }
-        }
-
-        if (ConfigurationHelper.getInstance().isExportFilesFromOptionalMetsFileGroups()) {
-
-            List<ProjectFileGroup> myFilegroups = process.getProjekt().getFilegroups();
-            if (myFilegroups != null && !myFilegroups.isEmpty()) {
-                for (ProjectFileGroup pfg : myFilegroups) {
-                    // check if source files exists
-                    if (pfg.getFolder() != null && pfg.getFolder().length() > 0) {
-                        Path folder = Paths.get(process.getMethodFromName(pfg.getFolder()));
-                        if (folder != null && Files.exists(folder) && !StorageProvider.getInstance().list(folder.toString()).isEmpty()) {
-                            List<Path> files = StorageProvider.getInstance().listFiles(folder.toString());
-                            for (Path file : files) {
-                                Path target = Paths.get(zielTif.toString(), file.getFileName().toString());
-                                Files.copy(file, target, NIOFileUtils.STANDARD_COPY_OPTIONS);
+        try (FileCopier copier = createFileCopier(process)) {
+            copier.copyFolder(tifOrdner, zielTif, NIOFileUtils.DATA_FILTER);
+
+            if (ConfigurationHelper.getInstance().isExportFilesFromOptionalMetsFileGroups()) {
+
+                List<ProjectFileGroup> myFilegroups = process.getProjekt().getFilegroups();
+                if (myFilegroups != null && !myFilegroups.isEmpty()) {
+                    for (ProjectFileGroup pfg : myFilegroups) {
+                        // check if source files exists
+                        if (pfg.getFolder() != null && pfg.getFolder().length() > 0) {
+                            String folder = process.getMethodFromName(pfg.getFolder());
+                            if (folder != null) {
+                                copier.copyFolder(Paths.get(folder), zielTif, null);
                             }
                         }
                     }
                 }
             }
+            copier.waitForCompletion();
         }
     }
 
+    private FileCopier createFileCopier(Process process) throws IOException, InterruptedException, SwapException {
+        // only the copy settings are needed, the ruleset is not read
+        ExportConfiguration config = getConfiguration(process, step);
+        if (config == null) {
+            return new FileCopier(ExportConfiguration.DEFAULT_THREADS, false, null, ChecksumCalculator.DEFAULT_ALGORITHMS);
+        }
+        ChecksumCache checksumCache = null;
+        if (config.isUseChecksumCache() && config.isHashWhileCopying()) {
+            // calculate the checksums while copying, so the export does not need to read the files again
+            checksumCache = ChecksumCache.load(Paths.get(process.getProcessDataDirectory(), ChecksumCache.CACHE_FILE_NAME));
+        }
+        FileCopier copier = new FileCopier(config.getCopyThreads(), config.isLinkFiles(), checksumCache, config.getHashedAlgorithms());
+        copier.setStorageBackend(config.getStorageBackend());
+        return copier;
+    }
+
     /**
      * only difference to inherrited method is that this one does not include the filegroups "DEFAULT" and "FULLTEXT"
      */
@@ -491,6 +923,30 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
     protected boolean writeMetsFile(Process myProzess, String targetFileName, Fileformat gdzfile, boolean writeLocalFilegroup)
             throws PreferencesException, WriteException, IOException, InterruptedException, SwapException, DAOException,
             TypeNotAllowedForParentException {
+        ExportContext context = createContext(myProzess, step);
+        if (context == null) {
+            return false;
+        }
+        return writeMetsFile(context, targetFileName, null, gdzfile, writeLocalFilegroup);
+    }
+
+    // use the listing of the pre-flight stage, if the folder was indexed
+    private static boolean hasFiles(FileIndex fileIndex, Path folder) {
+        if (fileIndex != null && fileIndex.isIndexed(folder)) {
+            return !fileIndex.getFiles(folder.toString()).isEmpty();
+        }
+        return StorageProvider.getInstance().isFileExists(folder) && !StorageProvider.getInstance().list(folder.toString()).isEmpty();
+    }
+
+    /**
+     * write the mets file. If rawFileName is set, the mets file is written into this file instead of the target file. The anchor file is always
+     * written next to the target file.
+     */
+    private boolean writeMetsFile(ExportContext context, String targetFileName, String rawFileName, Fileformat gdzfile,
+            boolean writeLocalFilegroup) throws PreferencesException, WriteException, IOException, InterruptedException, SwapException, DAOException,
+    TypeNotAllowedForParentException {
+        Process myProzess = context.getProcess();
+        Prefs prefs = context.getPrefs();
 
         ExportFileformat mm = MetadatenHelper.getExportFileformatByName(myProzess.getProjekt().getFileFormatDmsExport(), myProzess.getRegelsatz());
         mm.setWriteLocal(writeLocalFilegroup);
@@ -567,23 +1023,19 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
          */
         // Replace all pathes with the given VariableReplacer, also the file
         // group pathes!
-        VariableReplacer vp = new VariableReplacer(mm.getDigitalDocument(), prefs, myProzess, null);
+        VariableReplacer vp = context.getVariableReplacer(mm.getDigitalDocument());
         List<ProjectFileGroup> myFilegroups = myProzess.getProjekt().getFilegroups();
 
         if (myFilegroups != null && !myFilegroups.isEmpty()) {
-            List<ProjectFileGroup> toRemove = new ArrayList<>();
             for (ProjectFileGroup pfg : myFilegroups) {
-                if (!"MASTER".equals(pfg.getName()) && !"ALTO".equals(pfg.getName())) {
-                    // remove not needed filegroups
-                    toRemove.add(pfg);
-                } else {
+                // all other filegroups are not needed, the project itself must not be changed as it is shared between exports
+                if ("MASTER".equals(pfg.getName()) || "ALTO".equals(pfg.getName())) {
                     // check if source files exists
                     if (pfg.getFolder() != null && pfg.getFolder().length() > 0) {
                         String foldername = myProzess.getMethodFromName(pfg.getFolder());
                         if (foldername != null) {
                             Path folder = Paths.get(myProzess.getMethodFromName(pfg.getFolder()));
-                            if (folder != null && StorageProvider.getInstance().isFileExists(folder)
-                                    && !StorageProvider.getInstance().list(folder.toString()).isEmpty()) {
+                            if (hasFiles(context.getFileIndex(), folder)) {
                                 VirtualFileGroup v = new VirtualFileGroup();
                                 v.setName(pfg.getName());
                                 v.setPathToFiles(vp.replace(pfg.getPath()));
@@ -604,9 +1056,6 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
                 }
 
             }
-            if (!toRemove.isEmpty()) {
-                myFilegroups.removeAll(toRemove);
-            }
         }
 
         // Replace rights and digiprov entries.
@@ -661,20 +1110,42 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
             dd.addAllContentFiles();
 
         }
-        if (ConfigurationHelper.getInstance().isExportInTemporaryFile()) {
-            Path tempFile = StorageProvider.getInstance().createTemporaryFile(myProzess.getTitel(), ".xml");
-            String filename = tempFile.toString();
-            mm.write(filename);
-            StorageProvider.getInstance().copyFile(tempFile, Paths.get(targetFileName));
-
-            Path anchorFile = Paths.get(filename.replace(".xml", "_anchor.xml"));
+        AtomicFileWriter outputWriter = context.getConfiguration().getOutputWriter();
+        Path anchorTarget = Paths.get(targetFileName.replace(".xml", "_anchor.xml"));
+        if (rawFileName != null) {
+            mm.write(rawFileName);
+            Path anchorFile = Paths.get(rawFileName.replace(".xml", "_anchor.xml"));
             if (StorageProvider.getInstance().isFileExists(anchorFile)) {
-                StorageProvider.getInstance().copyFile(anchorFile, Paths.get(targetFileName.replace(".xml", "_anchor.xml")));
-                StorageProvider.getInstance().deleteDir(anchorFile);
+                Path tempFile = AtomicFileWriter.getTempFile(anchorTarget);
+                try {
+                    StorageProvider.getInstance().copyFile(anchorFile, tempFile);
+                    outputWriter.commit(tempFile, anchorTarget);
+                } finally {
+                    Files.deleteIfExists(tempFile);
+                    StorageProvider.getInstance().deleteDir(anchorFile);
+                }
             }
-            StorageProvider.getInstance().deleteDir(tempFile);
         } else {
-            mm.write(targetFileName);
+            // UGH writes into a hidden file next to the target, which is renamed when it is complete. This replaces the export into a temporary
+            // file, which needed an additional copy into the target folder. UGH derives the name of the anchor file from the .xml suffix, so the
+            // temporary file keeps it.
+            Path target = Paths.get(targetFileName);
+            String name = target.getFileName().toString();
+            if (name.endsWith(".xml")) {
+                name = name.substring(0, name.length() - ".xml".length());
+            }
+            Path tempFile = target.resolveSibling("." + name + ".part.xml");
+            Path anchorFile = target.resolveSibling("." + name + ".part_anchor.xml");
+            try {
+                mm.write(tempFile.toString());
+                if (StorageProvider.getInstance().isFileExists(anchorFile)) {
+                    outputWriter.commit(anchorFile, anchorTarget);
+                }
+                outputWriter.commit(tempFile, target);
+            } finally {
+                Files.deleteIfExists(tempFile);
+                Files.deleteIfExists(anchorFile);
+            }
         }
         Helper.setMeldung(null, myProzess.getTitel() + ": ", "ExportFinished");
         return true;
@@ -687,50 +1158,13 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
 
     @Override
     public boolean execute() {
-        String stepName = step.getTitel();
-        String projectName = step.getProzess().getProjekt().getTitel();
-
-        XMLConfiguration xmlConfig = ConfigPlugins.getPluginConfig(PLUGIN_NAME);
-        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
-        xmlConfig.setReloadingStrategy(new FileChangedReloadingStrategy());
-
-        SubnodeConfiguration myconfig = null;
-
-        // order of configuration is:
-        // 1.) project name and step name matches
-        // 2.) step name matches and project is *
-        // 3.) project name matches and step name is *
-        // 4.) project name and step name are *
-        try {
-            myconfig = xmlConfig.configurationAt("//config[./project = '" + projectName + "'][./step = '" + stepName + "']");
-        } catch (IllegalArgumentException e) {
-            try {
-                myconfig = xmlConfig.configurationAt("//config[./project = '*'][./step = '" + stepName + "']");
-            } catch (IllegalArgumentException e1) {
-                try {
-                    myconfig = xmlConfig.configurationAt("//config[./project = '" + projectName + "'][./step = '*']");
-                } catch (IllegalArgumentException e2) {
-                    myconfig = xmlConfig.configurationAt("//config[./project = '*'][./step = '*']");
-                }
-            }
-        }
-        exportFolder = myconfig.getString("/exportFolder", exportFolder);
-        exportXmlLog = myconfig.getBoolean("/exportXmlLog", true);
-        createManifest = myconfig.getBoolean("/createManifest", false);
-
-        if (createManifest) {
-            List<HierarchicalConfiguration> mfpList = myconfig.configurationsAt("manifestParameter");
-            for (HierarchicalConfiguration hc : mfpList) {
-                String name = hc.getString("@name");
-                String value = hc.getString(".", "");
-                List<String> valueList = Arrays.asList(value.split(";"));
-                submissionParameter.put(name, valueList);
-            }
+        ExportContext context = createContext(step.getProzess(), step);
+        if (context == null) {
+            return false;
         }
         try {
-            return startExport(step.getProzess());
-        } catch (DocStructHasNoTypeException | PreferencesException | WriteException | MetadataTypeNotAllowedException | ReadException
-                | TypeNotAllowedForParentException | IOException | InterruptedException | ExportFileException | UghHelperException | SwapException
+            return startExport(context);
+        } catch (PreferencesException | WriteException | TypeNotAllowedForParentException | IOException | InterruptedException | SwapException
                 | DAOException e) {
             log.error(e);
         }
@@ -763,6 +1197,10 @@ public class EwigExportPlugin extends ExportMets implements IStepPlugin, IPlugin
         this.returnPath = returnPath;
     }
 
+    void setChecksumExecutor(ExecutorService checksumExecutor) {
+        this.checksumExecutor = checksumExecutor;
+    }
+
     @Override
     public HashMap<String, StepReturnValue> validate() {
         return null;
@@ -0,0 +1,156 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Immutable representation of a single &lt;config&gt; block of the plugin configuration
+ */
+@Getter
+@Log4j2
+public class ExportConfiguration {
+
+    public static final int DEFAULT_THREADS = 4;
+
+    private final String exportFolder;
+    private final boolean exportXmlLog;
+    private final boolean createManifest;
+    private final int checksumThreads;
+    private final boolean useChecksumCache;
+    private final boolean verifyChecksums;
+    private final int copyThreads;
+    private final boolean linkFiles;
+    private final boolean hashWhileCopying;
+    private final boolean incrementalExport;
+    private final boolean createPackage;
+    private final boolean sendCallback;
+    // remove the indentation from the METS file
+    private final boolean compactMets;
+    // write a gzip compressed copy of the METS file
+    private final boolean compressMets;
+    // storage of the images and ALTO files
+    private final StorageBackend storageBackend;
+    // writes the METS file, the XML log and the manifests
+    private final AtomicFileWriter outputWriter;
+    // checksum algorithms for the archive, the first one is written into the METS file
+    private final List<String> checksumAlgorithms;
+    // fast algorithm to verify cached checksums, can be null
+    private final String changeDetectionAlgorithm;
+    // manifest parameter name and the list of possible values
+    private final Map<String, List<String>> submissionParameter;
+    // precompiled manifest parameter, the key is the parameter name
+    private final Map<String, ManifestTemplate> manifestTemplates;
+    // first value of the endpoint manifest parameter, null if it is not configured
+    private final String callbackEndpoint;
+
+    public ExportConfiguration(HierarchicalConfiguration config) {
+        exportFolder = config.getString("/exportFolder", "/opt/digiverso/lza/");
+        exportXmlLog = config.getBoolean("/exportXmlLog", true);
+        createManifest = config.getBoolean("/createManifest", false);
+        checksumThreads = config.getInt("/checksumThreads", DEFAULT_THREADS);
+        useChecksumCache = config.getBoolean("/useChecksumCache", false);
+        verifyChecksums = config.getBoolean("/verifyChecksums", false);
+        copyThreads = config.getInt("/copyThreads", DEFAULT_THREADS);
+        linkFiles = config.getBoolean("/linkFiles", false);
+        hashWhileCopying = config.getBoolean("/hashWhileCopying", false);
+        incrementalExport = config.getBoolean("/incrementalExport", false);
+        createPackage = config.getBoolean("/createPackage", false);
+        sendCallback = config.getBoolean("/sendCallback", false);
+        String metsFormat = config.getString("/metsFormat", "pretty").trim();
+        if (!"pretty".equalsIgnoreCase(metsFormat) && !"compact".equalsIgnoreCase(metsFormat)) {
+            log.error("METS format " + metsFormat + " is not supported, using pretty");
+        }
+        compactMets = "compact".equalsIgnoreCase(metsFormat);
+        String metsCompression = config.getString("/metsCompression", "none").trim();
+        if (!"none".equalsIgnoreCase(metsCompression) && !"gzip".equalsIgnoreCase(metsCompression)) {
+            log.error("METS compression " + metsCompression + " is not supported, no compressed copy is written");
+        }
+        compressMets = "gzip".equalsIgnoreCase(metsCompression);
+        String storageType = config.getString("/storage/@type", "local");
+        if ("s3".equalsIgnoreCase(storageType)) {
+            storageBackend = S3StorageBackend.getInstance(config);
+        } else {
+            if (!"local".equalsIgnoreCase(storageType)) {
+                log.error("Storage type " + storageType + " is not supported, using the local file system");
+            }
+            storageBackend = LocalStorageBackend.INSTANCE;
+        }
+        String fsync = config.getString("/fsync", "file");
+        AtomicFileWriter.FsyncPolicy fsyncPolicy = AtomicFileWriter.FsyncPolicy.parse(fsync);
+        if (fsyncPolicy == null) {
+            log.error("Fsync policy " + fsync + " is not supported, using file");
+            fsyncPolicy = AtomicFileWriter.FsyncPolicy.FILE;
+        }
+        outputWriter = new AtomicFileWriter(fsyncPolicy);
+
+        List<String> algorithms = new ArrayList<>();
+        for (String value : config.getStringArray("/checksumAlgorithm")) {
+            String algorithm = value.trim().toUpperCase(Locale.ROOT);
+            if (MultiDigest.CRC32C.equals(algorithm) || !MultiDigest.isSupported(algorithm)) {
+                log.error("Checksum algorithm " + value + " is not supported and gets ignored");
+            } else if (!algorithms.contains(algorithm)) {
+                algorithms.add(algorithm);
+            }
+        }
+        if (algorithms.isEmpty()) {
+            algorithms.add(ChecksumCalculator.CHECKSUM_TYPE);
+        }
+        checksumAlgorithms = Collections.unmodifiableList(algorithms);
+        String changeDetection = config.getString("/changeDetectionAlgorithm", "").trim().toUpperCase(Locale.ROOT);
+        if (StringUtils.isNotBlank(changeDetection) && !MultiDigest.CRC32C.equals(changeDetection)) {
+            log.error("Change detection algorithm " + changeDetection + " is not supported and gets ignored");
+            changeDetection = null;
+        }
+        changeDetectionAlgorithm = StringUtils.isBlank(changeDetection) ? null : changeDetection;
+
+        Map<String, List<String>> parameter = new LinkedHashMap<>();
+        Map<String, ManifestTemplate> templates = new LinkedHashMap<>();
+        if (createManifest) {
+            List<HierarchicalConfiguration> mfpList = config.configurationsAt("manifestParameter");
+            for (HierarchicalConfiguration hc : mfpList) {
+                String name = hc.getString("@name");
+                String value = hc.getString(".", "");
+                List<String> values = Collections.unmodifiableList(Arrays.asList(value.split(";")));
+                parameter.put(name, values);
+                templates.put(name, new ManifestTemplate(values));
+            }
+        }
+        submissionParameter = Collections.unmodifiableMap(parameter);
+        manifestTemplates = Collections.unmodifiableMap(templates);
+        List<String> endpoints = parameter.get("endpoint");
+        callbackEndpoint = endpoints == null || StringUtils.isBlank(endpoints.get(0)) ? null : endpoints.get(0).trim();
+        if (sendCallback && callbackEndpoint == null) {
+            log.error("No endpoint manifest parameter configured, no callback notifications are sent");
+        }
+    }
+
+    /**
+     * @return the algorithm written into the METS file
+     */
+    public String getPrimaryChecksumAlgorithm() {
+        return checksumAlgorithms.get(0);
+    }
+
+    /**
+     * @return all algorithms that are calculated for each file, including the change detection algorithm
+     */
+    public List<String> getHashedAlgorithms() {
+        if (changeDetectionAlgorithm == null) {
+            return checksumAlgorithms;
+        }
+        List<String> algorithms = new ArrayList<>(checksumAlgorithms);
+        algorithms.add(changeDetectionAlgorithm);
+        return algorithms;
+    }
+}
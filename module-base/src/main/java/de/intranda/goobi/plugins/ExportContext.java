@@ -0,0 +1,85 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.goobi.beans.Process;
+import org.goobi.beans.Step;
+
+import de.sub.goobi.helper.VariableReplacer;
+import de.sub.goobi.helper.exceptions.SwapException;
+import de.sub.goobi.metadaten.MetadatenHelper;
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.Setter;
+import ugh.dl.DigitalDocument;
+import ugh.dl.ExportFileformat;
+import ugh.dl.Fileformat;
+import ugh.dl.Prefs;
+import ugh.exceptions.PreferencesException;
+import ugh.exceptions.ReadException;
+
+/**
+ * Holds everything that belongs to a single export. A new context is created for every export, so one plugin instance can run several exports at
+ * the same time.
+ */
+@Getter
+public class ExportContext {
+
+    private final Process process;
+    // can be null, if the export was not started from a step
+    private final Step step;
+    private final Prefs prefs;
+    private final ExportConfiguration configuration;
+    private final List<String> problems = Collections.synchronizedList(new ArrayList<>());
+    private final ExportMetrics metrics = new ExportMetrics();
+    // listing of the export folders, created in the pre-flight stage
+    @Setter
+    private FileIndex fileIndex;
+    // progress of the export, null if no journal is written
+    @Setter
+    private ExportJournal journal;
+    @Getter(AccessLevel.NONE)
+    private Fileformat fileformat;
+    @Getter(AccessLevel.NONE)
+    private VariableReplacer variableReplacer;
+
+    public ExportContext(Process process, Step step, ExportConfiguration configuration) {
+        this.process = process;
+        this.step = step;
+        this.prefs = process.getRegelsatz().getPreferences();
+        this.configuration = configuration;
+    }
+
+    /**
+     * Get the metadata of the process in the export format of the project. The metadata file is only read on the first call, the METS file, the
+     * submission manifest and the variable replacer all work on the same model.
+     *
+     * @return the metadata
+     */
+    public synchronized Fileformat getFileformat() throws ReadException, IOException, PreferencesException, SwapException {
+        if (fileformat == null) {
+            Fileformat metadata = process.readMetadataFile();
+            ExportFileformat exportFormat = MetadatenHelper.getExportFileformatByName(process.getProjekt().getFileFormatDmsExport(),
+                    process.getRegelsatz());
+            exportFormat.setDigitalDocument(metadata.getDigitalDocument());
+            fileformat = exportFormat;
+        }
+        return fileformat;
+    }
+
+    /**
+     * Get the variable replacer of this export. It is created on the first call and shared by the METS file and the submission manifest.
+     *
+     * @param digitalDocument the digital document of the process
+     * @return the replacer
+     */
+    public synchronized VariableReplacer getVariableReplacer(DigitalDocument digitalDocument) {
+        if (variableReplacer == null) {
+            variableReplacer = new VariableReplacer(digitalDocument, prefs, process, step);
+        }
+        return variableReplacer;
+    }
+}
@@ -0,0 +1,227 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Progress of a running export. The journal is an append-only file in the process data directory and records the finished stages and the
+ * checksums of all hashed files. If an export gets interrupted, the next export of the process continues with the data of the journal instead of
+ * hashing all files again. The journal is deleted after a successful export.
+ *
+ * <p>
+ * The first line contains a fingerprint of the metadata file and the checksum algorithms. If the fingerprint does not match, the journal belongs
+ * to another state of the process and is discarded. Each line is written with a single write call, an incomplete last line of a crashed export is
+ * removed when the journal is continued.
+ */
+@Log4j2
+public class ExportJournal implements Closeable {
+
+    public static final String JOURNAL_FILE_NAME = "lza-export-journal.txt";
+
+    private static final String SEPARATOR = SidecarFile.SEPARATOR;
+
+    private static final String START_LINE = "START";
+
+    private static final String STAGE_LINE = "STAGE";
+
+    private final Path journalFile;
+
+    private final Set<String> completedStages = new LinkedHashSet<>();
+
+    // path and state of each file of the interrupted export, only filled when the journal is loaded
+    private final Map<String, ExportState.FileState> files = new HashMap<>();
+
+    private FileChannel channel;
+
+    private ExportJournal(Path journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    /**
+     * Open the journal of a process. An existing journal with the same fingerprint is loaded and continued, otherwise a new journal is started.
+     *
+     * @param journalFile the journal file
+     * @param fingerprint the state of the process the journal belongs to
+     * @return the opened journal
+     * @throws IOException if the journal cannot be written
+     */
+    public static ExportJournal open(Path journalFile, String fingerprint) throws IOException {
+        ExportJournal journal = new ExportJournal(journalFile);
+        boolean resumed = Files.exists(journalFile) && journal.load(fingerprint);
+        if (resumed) {
+            journal.channel = FileChannel.open(journalFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long completeLines = getLengthOfCompleteLines(journal.channel);
+            if (completeLines < journal.channel.size()) {
+                // remove the incomplete last line of the crashed export, so the next line does not continue it
+                journal.channel.truncate(completeLines);
+            }
+            journal.channel.position(completeLines);
+        } else {
+            journal.completedStages.clear();
+            journal.files.clear();
+            journal.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            journal.append(START_LINE + SEPARATOR + fingerprint, true);
+        }
+        return journal;
+    }
+
+    /**
+     * Get the length of the file up to the line break of the last complete line
+     */
+    private static long getLengthOfCompleteLines(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(0, end - buffer.capacity());
+            buffer.clear().limit((int) (end - start));
+            while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) != -1) {
+                // read the whole block
+            }
+            for (int i = buffer.position() - 1; i >= 0; i--) {
+                if (buffer.get(i) == '\n') {
+                    return start + i + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    private boolean load(String fingerprint) {
+        List<String[]> lines;
+        try {
+            lines = SidecarFile.readLines(journalFile);
+        } catch (IOException e) {
+            log.error("Cannot read export journal " + journalFile + ", the export starts from the beginning", e);
+            return false;
+        }
+        if (lines.isEmpty() || lines.get(0).length != 2 || !START_LINE.equals(lines.get(0)[0]) || !fingerprint.equals(lines.get(0)[1])) {
+            log.info("Export journal " + journalFile + " belongs to another state of the process and gets discarded");
+            return false;
+        }
+        for (String[] fields : lines.subList(1, lines.size())) {
+            if (STAGE_LINE.equals(fields[0]) && fields.length == 2) {
+                completedStages.add(fields[1]);
+            } else {
+                ExportState.FileState file = SidecarFile.parseFileLine(fields);
+                if (file != null) {
+                    files.put(fields[4], file);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true, if the journal continues an interrupted export
+     */
+    public boolean isResumed() {
+        return !completedStages.isEmpty() || !files.isEmpty();
+    }
+
+    /**
+     * @return the number of files with checksums from the interrupted export
+     */
+    public int getNumberOfFiles() {
+        return files.size();
+    }
+
+    /**
+     * @return the stages finished by the interrupted export, in the order in which they were finished
+     */
+    public Set<String> getCompletedStages() {
+        return completedStages;
+    }
+
+    public boolean isCompleted(ExportStage stage) {
+        return completedStages.contains(stage.getKey());
+    }
+
+    /**
+     * Get the checksums of a file from the interrupted export
+     *
+     * @param file the file
+     * @param size the current size of the file
+     * @param lastModified the current modification date of the file
+     * @param algorithms the required algorithms
+     * @return the checksums or null, if the file was not hashed yet or was changed since
+     */
+    public Map<String, String> getChecksums(Path file, long size, long lastModified, List<String> algorithms) {
+        ExportState.FileState state = files.get(file.toString());
+        if (state == null || !state.matches(size, lastModified, algorithms)) {
+            return null;
+        }
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (String algorithm : algorithms) {
+            checksums.put(algorithm, state.getChecksums().get(algorithm));
+        }
+        return checksums;
+    }
+
+    /**
+     * Record the checksums of a file. Errors are only logged, the export itself does not depend on the journal.
+     */
+    public synchronized void addFile(Path file, long size, long lastModified, Map<String, String> checksums) {
+        try {
+            append(SidecarFile.formatFileLine(file.toString(), size, lastModified, checksums), false);
+        } catch (IOException e) {
+            log.error("Cannot write export journal " + journalFile, e);
+        }
+    }
+
+    /**
+     * Record a finished stage. The journal is forced to disk, so all files recorded before the stage survive a crash of the system.
+     */
+    public synchronized void addStage(ExportStage stage) {
+        try {
+            append(STAGE_LINE + SEPARATOR + stage.getKey(), true);
+            completedStages.add(stage.getKey());
+        } catch (IOException e) {
+            log.error("Cannot write export journal " + journalFile, e);
+        }
+    }
+
+    private void append(String line, boolean force) throws IOException {
+        if (channel == null) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Close and remove the journal, after the export was finished successfully
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        Files.deleteIfExists(journalFile);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
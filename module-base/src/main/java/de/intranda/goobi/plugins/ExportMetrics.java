@@ -0,0 +1,155 @@
+package de.intranda.goobi.plugins;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Collects wall time, bytes and number of files for each stage of a single export. Sequential stages are measured from checkpoint to checkpoint
+ * with {@link #stageFinished(ExportStage)}, stages running in the background are measured from their own start with
+ * {@link #backgroundStageFinished(ExportStage, long, long, int)}. Only the export thread moves the checkpoint, a background stage the export
+ * thread has waited for is recorded with {@link #awaitedStageFinished(ExportStage, long, long, int)}.
+ */
+public class ExportMetrics {
+
+    private final Map<ExportStage, StageMetrics> stages = new EnumMap<>(ExportStage.class);
+
+    @Getter
+    private final long startNanos = System.nanoTime();
+
+    private long checkpoint = startNanos;
+
+    @Getter
+    private long durationNanos;
+
+    @Getter
+    private boolean success;
+
+    // number of files that were not read because the checksum cache had a valid entry
+    @Getter
+    private int filesFromCache;
+
+    // format of the final METS file, pretty or compact
+    @Getter
+    private String metsFormat;
+
+    /**
+     * Record the time since the last checkpoint as duration of the given stage
+     *
+     * @param stage the finished stage
+     */
+    public synchronized void stageFinished(ExportStage stage) {
+        stageFinished(stage, 0, 0);
+    }
+
+    /**
+     * Record the time since the last checkpoint as duration of the given stage
+     *
+     * @param stage the finished stage
+     * @param bytes number of bytes read or written in this stage
+     * @param files number of files processed in this stage
+     */
+    public synchronized void stageFinished(ExportStage stage, long bytes, int files) {
+        long now = System.nanoTime();
+        record(stage, now - checkpoint, bytes, files);
+        checkpoint = now;
+    }
+
+    /**
+     * Record a stage that ran in the background, measured from its own start. The checkpoint of the sequential stages is not changed, so this can
+     * be called from any thread.
+     *
+     * @param stage the finished stage
+     * @param stageStartNanos start of the stage, from {@link System#nanoTime()}
+     * @param bytes number of bytes read or written in this stage
+     * @param files number of files processed in this stage
+     */
+    public synchronized void backgroundStageFinished(ExportStage stage, long stageStartNanos, long bytes, int files) {
+        record(stage, System.nanoTime() - stageStartNanos, bytes, files);
+    }
+
+    /**
+     * Record a background stage the export thread has waited for, measured from its own start. Now is used as next checkpoint, so the waiting time
+     * is not added to the next sequential stage.
+     *
+     * @param stage the finished stage
+     * @param stageStartNanos start of the stage, from {@link System#nanoTime()}
+     * @param bytes number of bytes read or written in this stage
+     * @param files number of files processed in this stage
+     */
+    public synchronized void awaitedStageFinished(ExportStage stage, long stageStartNanos, long bytes, int files) {
+        long now = System.nanoTime();
+        record(stage, now - stageStartNanos, bytes, files);
+        checkpoint = now;
+    }
+
+    private void record(ExportStage stage, long durationNanos, long bytes, int files) {
+        stages.computeIfAbsent(stage, s -> new StageMetrics()).add(durationNanos, bytes, files);
+    }
+
+    public synchronized void setFilesFromCache(int filesFromCache) {
+        this.filesFromCache = filesFromCache;
+    }
+
+    public synchronized void setMetsFormat(String metsFormat) {
+        this.metsFormat = metsFormat;
+    }
+
+    /**
+     * Mark the export as finished
+     *
+     * @param success result of the export
+     */
+    public synchronized void finish(boolean success) {
+        this.success = success;
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    /**
+     * @return the metrics of a stage or null, if the stage did not run
+     */
+    public synchronized StageMetrics getStage(ExportStage stage) {
+        return stages.get(stage);
+    }
+
+    public synchronized Map<ExportStage, StageMetrics> getStages() {
+        return new EnumMap<>(stages);
+    }
+
+    /**
+     * Format the metrics as key=value pairs, so they can be parsed from the log
+     *
+     * @param processId id of the exported process
+     * @param processTitle title of the exported process
+     * @return the log line
+     */
+    public synchronized String toLogLine(Integer processId, String processTitle) {
+        StringBuilder line = new StringBuilder("LZA export metrics: process_id=").append(processId)
+                .append(" process_title=")
+                .append(processTitle)
+                .append(" success=")
+                .append(success)
+                .append(" total_ms=")
+                .append(durationNanos / 1_000_000)
+                .append(" files_from_cache=")
+                .append(filesFromCache);
+        if (metsFormat != null) {
+            line.append(" mets_format=").append(metsFormat);
+        }
+        for (Map.Entry<ExportStage, StageMetrics> entry : stages.entrySet()) {
+            String key = entry.getKey().getKey();
+            StageMetrics stage = entry.getValue();
+            line.append(' ').append(key).append("_ms=").append(stage.getDurationMillis());
+            if (stage.getBytes() > 0) {
+                line.append(' ').append(key).append("_bytes=").append(stage.getBytes());
+                line.append(' ').append(key).append("_mb_s=").append(String.format(Locale.ROOT, "%.2f", stage.getMegabytesPerSecond()));
+            }
+            if (stage.getFiles() > 0) {
+                line.append(' ').append(key).append("_files=").append(stage.getFiles());
+            }
+        }
+        return line.toString();
+    }
+}
@@ -0,0 +1,27 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Locale;
+
+/**
+ * The stages of an export, in the order in which they end. The checksum calculation runs in the background and overlaps with the METS and XML
+ * log stages, its duration is the time from the start of the METS stage until the last checksum is known.
+ */
+public enum ExportStage {
+    READ_METADATA,
+    VALIDATION,
+    PREFLIGHT,
+    METS_FILE,
+    XML_LOG,
+    CHECKSUMS,
+    POST_PROCESSING,
+    METS_COMPRESSION,
+    MANIFEST,
+    PACKAGE;
+
+    /**
+     * @return the name of the stage as used in log lines and metric names, e.g. read_metadata
+     */
+    public String getKey() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,159 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * The files and checksums of the last successful export of a process. The state is stored as a tab separated file in the process data directory.
+ */
+@Log4j2
+public class ExportState {
+
+    public static final String STATE_FILE_NAME = "lza-export-state.txt";
+
+    private static final String SEPARATOR = SidecarFile.SEPARATOR;
+
+    private static final String METS_LINE = "METS";
+
+    // path and state of each file, in export order
+    private final Map<String, FileState> files = new LinkedHashMap<>();
+
+    @Getter
+    @Setter
+    private String metsChecksumType;
+
+    @Getter
+    @Setter
+    private String metsChecksum;
+
+    /**
+     * Load the state from the given file. If the file does not exist or cannot be read, an empty state is returned.
+     *
+     * @param stateFile the state file
+     * @return the state
+     */
+    public static ExportState load(Path stateFile) {
+        ExportState state = new ExportState();
+        if (!Files.exists(stateFile)) {
+            return state;
+        }
+        try {
+            for (String[] fields : SidecarFile.readLines(stateFile)) {
+                if (METS_LINE.equals(fields[0]) && fields.length == 3) {
+                    // METS, algorithm, checksum
+                    state.metsChecksumType = fields[1];
+                    state.metsChecksum = fields[2];
+                } else {
+                    FileState file = SidecarFile.parseFileLine(fields);
+                    if (file != null) {
+                        state.files.put(fields[4], file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            log.error("Cannot read export state " + stateFile + ", all files are handled as new", e);
+            state.files.clear();
+            state.metsChecksum = null;
+        }
+        return state;
+    }
+
+    /**
+     * Write the state into a file. The file gets replaced atomically.
+     *
+     * @param stateFile the state file
+     * @throws IOException
+     */
+    public void save(Path stateFile) throws IOException {
+        Path tempFile = stateFile.resolveSibling(stateFile.getFileName().toString() + ".tmp");
+        try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+            if (metsChecksum != null) {
+                writer.write(METS_LINE + SEPARATOR + metsChecksumType + SEPARATOR + metsChecksum);
+                writer.write('\n');
+            }
+            for (Map.Entry<String, FileState> entry : files.entrySet()) {
+                FileState file = entry.getValue();
+                if (file.getChecksums() == null) {
+                    // the file was not hashed, the next export has to hash it
+                    continue;
+                }
+                writer.write(SidecarFile.formatFileLine(entry.getKey(), file.getSize(), file.getLastModified(), file.getChecksums()));
+                writer.write('\n');
+            }
+        }
+        Files.move(tempFile, stateFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the state of the file or null, if the file was not part of the export
+     */
+    public FileState getFile(Path file) {
+        return files.get(file.toString());
+    }
+
+    public void putFile(Path file, FileState state) {
+        files.put(file.toString(), state);
+    }
+
+    /**
+     * @return the paths of all files of the export
+     */
+    public Iterable<String> getPaths() {
+        return Collections.unmodifiableSet(files.keySet());
+    }
+
+    /**
+     * Size, modification date and checksums of a single file
+     */
+    public static class FileState {
+        private final long size;
+        private final long lastModified;
+        private final Map<String, String> checksums;
+
+        public FileState(long size, long lastModified, Map<String, String> checksums) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksums = checksums;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public Map<String, String> getChecksums() {
+            return checksums;
+        }
+
+        /**
+         * Check if the file is unchanged and all requested checksums are known
+         *
+         * @return true, if size and modification date are the same and the checksums of all algorithms are known
+         */
+        public boolean matches(long size, long lastModified, Iterable<String> algorithms) {
+            if (this.size != size || this.lastModified != lastModified || checksums == null) {
+                return false;
+            }
+            for (String algorithm : algorithms) {
+                if (!checksums.containsKey(algorithm)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
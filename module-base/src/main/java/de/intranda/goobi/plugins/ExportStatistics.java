@@ -0,0 +1,141 @@
+package de.intranda.goobi.plugins;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Sums up the {@link ExportMetrics} of all exports and publishes them via JMX, so they can be collected by the monitoring, e.g. with a JMX
+ * exporter.
+ */
+@Log4j2
+public class ExportStatistics implements ExportStatisticsMXBean {
+
+    public static final String OBJECT_NAME = "de.intranda.goobi.plugins:type=LzaExport";
+
+    private static final ExportStatistics INSTANCE = new ExportStatistics();
+
+    private long numberOfExports;
+    private long numberOfFailedExports;
+    private long totalDurationNanos;
+    private long lastDurationNanos;
+    private long filesFromCache;
+    private final Map<ExportStage, Long> stageDurationNanos = new EnumMap<>(ExportStage.class);
+    private final Map<ExportStage, Long> stageBytes = new EnumMap<>(ExportStage.class);
+    private final Map<ExportStage, Long> stageFiles = new EnumMap<>(ExportStage.class);
+
+    static {
+        register();
+    }
+
+    private ExportStatistics() {
+    }
+
+    public static ExportStatistics getInstance() {
+        return INSTANCE;
+    }
+
+    private static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            // the plugin may have been loaded again, replace the old instance
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(INSTANCE, name);
+        } catch (JMException e) {
+            log.error("Cannot register export statistics", e);
+        }
+    }
+
+    /**
+     * Add the metrics of a finished export
+     */
+    public synchronized void add(ExportMetrics metrics) {
+        numberOfExports++;
+        if (!metrics.isSuccess()) {
+            numberOfFailedExports++;
+        }
+        totalDurationNanos += metrics.getDurationNanos();
+        lastDurationNanos = metrics.getDurationNanos();
+        filesFromCache += metrics.getFilesFromCache();
+        for (Map.Entry<ExportStage, StageMetrics> entry : metrics.getStages().entrySet()) {
+            stageDurationNanos.merge(entry.getKey(), entry.getValue().getDurationNanos(), Long::sum);
+            stageBytes.merge(entry.getKey(), entry.getValue().getBytes(), Long::sum);
+            stageFiles.merge(entry.getKey(), (long) entry.getValue().getFiles(), Long::sum);
+        }
+    }
+
+    @Override
+    public synchronized long getNumberOfExports() {
+        return numberOfExports;
+    }
+
+    @Override
+    public synchronized long getNumberOfFailedExports() {
+        return numberOfFailedExports;
+    }
+
+    @Override
+    public synchronized long getTotalDurationMillis() {
+        return totalDurationNanos / 1_000_000;
+    }
+
+    @Override
+    public synchronized long getLastDurationMillis() {
+        return lastDurationNanos / 1_000_000;
+    }
+
+    @Override
+    public synchronized long getBytesHashed() {
+        return stageBytes.getOrDefault(ExportStage.CHECKSUMS, 0L);
+    }
+
+    @Override
+    public synchronized long getFilesHashed() {
+        return stageFiles.getOrDefault(ExportStage.CHECKSUMS, 0L);
+    }
+
+    @Override
+    public synchronized long getFilesFromCache() {
+        return filesFromCache;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStageDurationMillis() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<ExportStage, Long> entry : stageDurationNanos.entrySet()) {
+            result.put(entry.getKey().getKey(), entry.getValue() / 1_000_000);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStageBytes() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<ExportStage, Long> entry : stageBytes.entrySet()) {
+            result.put(entry.getKey().getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized void reset() {
+        numberOfExports = 0;
+        numberOfFailedExports = 0;
+        totalDurationNanos = 0;
+        lastDurationNanos = 0;
+        filesFromCache = 0;
+        stageDurationNanos.clear();
+        stageBytes.clear();
+        stageFiles.clear();
+    }
+}
@@ -0,0 +1,35 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Map;
+
+/**
+ * Aggregated metrics of all exports since the start of the application, registered as {@value ExportStatistics#OBJECT_NAME}
+ */
+public interface ExportStatisticsMXBean {
+
+    long getNumberOfExports();
+
+    long getNumberOfFailedExports();
+
+    long getTotalDurationMillis();
+
+    long getLastDurationMillis();
+
+    long getBytesHashed();
+
+    long getFilesHashed();
+
+    long getFilesFromCache();
+
+    /**
+     * @return the summed up duration of each stage in milliseconds
+     */
+    Map<String, Long> getStageDurationMillis();
+
+    /**
+     * @return the summed up bytes of each stage
+     */
+    Map<String, Long> getStageBytes();
+
+    void reset();
+}
@@ -0,0 +1,195 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Copies the content of folders on a bounded pool of worker threads. Each source folder is listed only once. Targets with the same size and
+ * modification date as the source are skipped. Local files are copied with {@link FileChannel}.transferTo, so the kernel can copy them without
+ * passing the data through the JVM. If enabled, files on the same file system are hard linked instead of copied.
+ *
+ * If a {@link ChecksumCache} is given, the checksum of each copied file is calculated from the same read and stored in the cache for source and
+ * target. The export then does not need to read the files again.
+ */
+@Log4j2
+public class FileCopier implements AutoCloseable {
+
+    private final ExecutorService executor;
+
+    private final boolean linkFiles;
+
+    private final ChecksumCache checksumCache;
+
+    private final List<String> checksumAlgorithms;
+
+    private final List<CompletableFuture<Void>> pendingCopies = new ArrayList<>();
+
+    // last copy of each target file, copies into the same target run one after another in the order they were started
+    private final Map<Path, CompletableFuture<Void>> copiesByTarget = new HashMap<>();
+
+    private StorageBackend storageBackend = LocalStorageBackend.INSTANCE;
+
+    /**
+     * @param numberOfThreads number of files that are copied at the same time
+     * @param linkFiles create hard links instead of copies, if source and target are on the same file system
+     * @param checksumCache if not null, the checksums are calculated while copying and stored in this cache
+     * @param checksumAlgorithms the algorithms to calculate while copying
+     */
+    public FileCopier(int numberOfThreads, boolean linkFiles, ChecksumCache checksumCache, List<String> checksumAlgorithms) {
+        this.linkFiles = linkFiles;
+        this.checksumCache = checksumCache;
+        this.checksumAlgorithms = checksumAlgorithms;
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(Math.max(1, numberOfThreads), r -> {
+            Thread thread = new Thread(r, "lza-copy-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Set the backend to list and copy the source folders, e.g. to download the files from an object store. The default backend copies files on
+     * the local file system directly. Must be called before the first copy is started.
+     *
+     * @param storageBackend the backend
+     */
+    public void setStorageBackend(StorageBackend storageBackend) {
+        this.storageBackend = storageBackend;
+    }
+
+    /**
+     * Start copying all files of a folder. The target folder is only created, if the source folder contains any files. If several folders are copied
+     * into the same target, files with the same name are copied in the order of the calls, so the file of the last folder wins.
+     *
+     * @param source the source folder
+     * @param target the target folder
+     * @param filter filter for the files to copy, can be null
+     * @return true, if any files are copied
+     * @throws IOException if the target folder cannot be created
+     */
+    public boolean copyFolder(Path source, Path target, DirectoryStream.Filter<Path> filter) throws IOException {
+        List<FileIndex.Entry> files = storageBackend.list(source, filter);
+        if (files.isEmpty()) {
+            return false;
+        }
+        Files.createDirectories(target);
+        for (FileIndex.Entry entry : files) {
+            Path targetFile = target.resolve(entry.getPath().getFileName().toString());
+            Runnable copy = () -> {
+                try {
+                    copyFile(entry, targetFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            };
+            CompletableFuture<Void> previousCopy = copiesByTarget.get(targetFile);
+            CompletableFuture<Void> future = previousCopy == null ? CompletableFuture.runAsync(copy, executor) : previousCopy.thenRunAsync(copy, executor);
+            copiesByTarget.put(targetFile, future);
+            pendingCopies.add(future);
+        }
+        return true;
+    }
+
+    /**
+     * Wait until all started copies are finished. The checksum cache is written afterwards.
+     *
+     * @throws IOException if any file could not be copied
+     * @throws InterruptedException
+     */
+    public void waitForCompletion() throws IOException, InterruptedException {
+        try {
+            CompletableFuture.allOf(pendingCopies.toArray(new CompletableFuture[pendingCopies.size()])).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            while ((cause instanceof CompletionException || cause instanceof UncheckedIOException) && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        } finally {
+            pendingCopies.clear();
+            copiesByTarget.clear();
+            if (checksumCache != null) {
+                try {
+                    checksumCache.save(false);
+                } catch (IOException e) {
+                    log.error("Cannot write checksum cache", e);
+                }
+            }
+        }
+    }
+
+    private void copyFile(FileIndex.Entry sourceEntry, Path target) throws IOException {
+        Path source = sourceEntry.getPath();
+        // files of an object store are always copied by their backend, even if a local copy exists
+        if (!(storageBackend instanceof LocalStorageBackend) || !isLocalFile(source)) {
+            storageBackend.copy(sourceEntry, target);
+            return;
+        }
+        BasicFileAttributes sourceAttributes = Files.readAttributes(source, BasicFileAttributes.class);
+        if (Files.exists(target)) {
+            BasicFileAttributes targetAttributes = Files.readAttributes(target, BasicFileAttributes.class);
+            if (targetAttributes.size() == sourceAttributes.size()
+                    && targetAttributes.lastModifiedTime().equals(sourceAttributes.lastModifiedTime())) {
+                log.debug("Skip unchanged file " + target);
+                return;
+            }
+        }
+        if (linkFiles && Files.getFileStore(source).equals(Files.getFileStore(target.getParent()))) {
+            Files.deleteIfExists(target);
+            Files.createLink(target, source);
+            return;
+        }
+        if (checksumCache != null) {
+            Map<String, String> checksums = ChecksumCalculator.copyWithChecksums(source, target, checksumAlgorithms);
+            Files.setLastModifiedTime(target, sourceAttributes.lastModifiedTime());
+            long size = sourceAttributes.size();
+            long lastModified = sourceAttributes.lastModifiedTime().toMillis();
+            for (Map.Entry<String, String> entry : checksums.entrySet()) {
+                checksumCache.put(source, size, lastModified, entry.getKey(), entry.getValue());
+                checksumCache.put(target, size, lastModified, entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+        }
+        Files.setLastModifiedTime(target, sourceAttributes.lastModifiedTime());
+    }
+
+    private static boolean isLocalFile(Path file) {
+        return file.getFileSystem() == FileSystems.getDefault() && Files.isRegularFile(file);
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
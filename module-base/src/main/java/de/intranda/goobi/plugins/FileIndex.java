@@ -0,0 +1,126 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory listing of the folders of an export. Each folder is listed once during the pre-flight stage, together with size and modification
+ * date of each file. METS generation, hashing and the check of the pagination then use the index instead of listing the folders again.
+ */
+public class FileIndex {
+
+    private final StorageBackend storageBackend;
+
+    // files of each indexed folder in listing order, the key is the normalized folder
+    private final Map<Path, List<Entry>> folders = new LinkedHashMap<>();
+
+    private final Map<Path, Entry> files = new HashMap<>();
+
+    /**
+     * @param storageBackend the backend to list the folders
+     */
+    public FileIndex(StorageBackend storageBackend) {
+        this.storageBackend = storageBackend;
+    }
+
+    /**
+     * List a folder and add all its files to the index. A folder that does not exist is indexed as empty folder.
+     *
+     * @param folder the folder
+     * @param filter filter for the files, can be null
+     * @return the files of the folder
+     * @throws IOException if the attributes of a file cannot be read
+     */
+    public List<Entry> addFolder(String folder, DirectoryStream.Filter<Path> filter) throws IOException {
+        Path path = normalize(Paths.get(folder));
+        List<Entry> entries = folders.get(path);
+        if (entries != null) {
+            return entries;
+        }
+        entries = Collections.unmodifiableList(storageBackend.list(Paths.get(folder), filter));
+        for (Entry entry : entries) {
+            files.put(normalize(entry.getPath()), entry);
+        }
+        folders.put(path, entries);
+        return entries;
+    }
+
+    /**
+     * @return the files of a folder or null, if the folder is not indexed
+     */
+    public List<Entry> getFiles(String folder) {
+        return folders.get(normalize(Paths.get(folder)));
+    }
+
+    /**
+     * @return true, if the folder is indexed
+     */
+    public boolean isIndexed(Path folder) {
+        return folders.containsKey(normalize(folder));
+    }
+
+    /**
+     * @return the entry of a file or null, if the file is not in the index
+     */
+    public Entry get(Path file) {
+        return files.get(normalize(file));
+    }
+
+    /**
+     * Find all files that are not in the index. Files in folders that were not indexed are ignored.
+     *
+     * @param expectedFiles the files to check
+     * @return the missing files
+     */
+    public List<Path> findMissingFiles(List<Path> expectedFiles) {
+        List<Path> missing = new ArrayList<>();
+        for (Path file : expectedFiles) {
+            if (file.getParent() != null && isIndexed(file.getParent()) && get(file) == null) {
+                missing.add(file);
+            }
+        }
+        return missing;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Size and modification date of a single file at the time of the pre-flight stage
+     */
+    public static class Entry {
+
+        private final Path path;
+
+        private final long size;
+
+        private final long lastModified;
+
+        public Entry(Path path, long size, long lastModified) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+}
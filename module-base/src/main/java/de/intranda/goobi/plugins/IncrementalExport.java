@@ -0,0 +1,147 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.sub.goobi.helper.StorageProvider;
+import lombok.Getter;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Compares the files of an export with the {@link ExportState} of the last successful export. Only files that were added or modified since then
+ * are hashed, the checksums of all other files are taken from the last export. After the export the new state and a list of the changes are
+ * written into the process data directory.
+ */
+@Log4j2
+public class IncrementalExport {
+
+    public static final String CHANGES_FILE_NAME = "lza-export-changes.txt";
+
+    private final Path folder;
+
+    private final List<String> algorithms;
+
+    private final ExportState previousState;
+
+    private final ExportState currentState = new ExportState();
+
+    // size and modification date of all submitted files, only the exported ones are stored in the state
+    private final Map<Path, ExportState.FileState> submittedFiles = new ConcurrentHashMap<>();
+
+    @Getter
+    private final List<Path> addedFiles = new ArrayList<>();
+
+    @Getter
+    private final List<Path> modifiedFiles = new ArrayList<>();
+
+    @Getter
+    private final List<String> removedFiles = new ArrayList<>();
+
+    /**
+     * @param folder the process data directory, containing the state of the last export
+     * @param algorithms the checksum algorithms of this export
+     */
+    public IncrementalExport(Path folder, List<String> algorithms) {
+        this.folder = folder;
+        this.algorithms = algorithms;
+        previousState = ExportState.load(folder.resolve(ExportState.STATE_FILE_NAME));
+    }
+
+    /**
+     * Submit a file to the calculator. If the file was not changed since the last export, its checksums are taken from the last export.
+     *
+     * @param calculator the checksum calculator
+     * @param file the file to export
+     * @return the pending checksums, by algorithm
+     * @throws IOException if the file cannot be accessed
+     */
+    public CompletableFuture<Map<String, String>> submit(ChecksumCalculator calculator, Path file) throws IOException {
+        return submit(calculator, file, StorageProvider.getInstance().getFileSize(file), StorageProvider.getInstance().getLastModifiedDate(file));
+    }
+
+    /**
+     * Submit a file with known size and modification date, e.g. from the {@link FileIndex}
+     *
+     * @param calculator the checksum calculator
+     * @param file the file to export
+     * @param size the size of the file
+     * @param lastModified the modification date of the file in milliseconds
+     * @return the pending checksums, by algorithm
+     */
+    public CompletableFuture<Map<String, String>> submit(ChecksumCalculator calculator, Path file, long size, long lastModified) {
+        submittedFiles.put(file, new ExportState.FileState(size, lastModified, null));
+        ExportState.FileState previous = previousState.getFile(file);
+        if (previous != null && previous.matches(size, lastModified, algorithms)) {
+            Map<String, String> checksums = new LinkedHashMap<>();
+            for (String algorithm : algorithms) {
+                checksums.put(algorithm, previous.getChecksums().get(algorithm));
+            }
+            calculator.preset(file, checksums);
+            // the preset checksums, or an earlier calculation of the same file
+            return calculator.submit(file);
+        }
+        if (previous == null) {
+            addedFiles.add(file);
+        } else {
+            modifiedFiles.add(file);
+        }
+        return calculator.submit(new FileIndex.Entry(file, size, lastModified));
+    }
+
+    /**
+     * Store the state of this export and write the list of changes. Submitted files that are not part of the export are ignored.
+     *
+     * @param files the exported files
+     * @param checksums the checksums of the files, in the same order
+     * @param metsChecksumType algorithm of the METS checksum
+     * @param metsChecksum checksum of the written METS file
+     * @throws IOException
+     */
+    public void finish(List<Path> files, List<Map<String, String>> checksums, String metsChecksumType, String metsChecksum) throws IOException {
+        for (int i = 0; i < files.size(); i++) {
+            ExportState.FileState submitted = submittedFiles.get(files.get(i));
+            if (submitted != null && checksums.get(i) != null) {
+                currentState.putFile(files.get(i), new ExportState.FileState(submitted.getSize(), submitted.getLastModified(), checksums.get(i)));
+            }
+        }
+        addedFiles.removeIf(file -> currentState.getFile(file) == null);
+        modifiedFiles.removeIf(file -> currentState.getFile(file) == null);
+        for (String path : previousState.getPaths()) {
+            if (currentState.getFile(folder.getFileSystem().getPath(path)) == null) {
+                removedFiles.add(path);
+            }
+        }
+        boolean metsChanged = !metsChecksum.equals(previousState.getMetsChecksum()) || !metsChecksumType.equals(previousState.getMetsChecksumType());
+        currentState.setMetsChecksumType(metsChecksumType);
+        currentState.setMetsChecksum(metsChecksum);
+        currentState.save(folder.resolve(ExportState.STATE_FILE_NAME));
+
+        try (BufferedWriter writer = Files.newBufferedWriter(folder.resolve(CHANGES_FILE_NAME), StandardCharsets.UTF_8)) {
+            writer.write("METS\t" + (metsChanged ? "MODIFIED" : "UNCHANGED"));
+            writer.newLine();
+            for (Path file : addedFiles) {
+                writer.write("ADDED\t" + file);
+                writer.newLine();
+            }
+            for (Path file : modifiedFiles) {
+                writer.write("MODIFIED\t" + file);
+                writer.newLine();
+            }
+            for (String file : removedFiles) {
+                writer.write("REMOVED\t" + file);
+                writer.newLine();
+            }
+        }
+        log.info("Incremental LZA export: " + addedFiles.size() + " files added, " + modifiedFiles.size() + " modified, " + removedFiles.size()
+                + " removed, METS file " + (metsChanged ? "modified" : "unchanged"));
+    }
+}
@@ -0,0 +1,64 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import de.sub.goobi.helper.NIOFileUtils;
+import de.sub.goobi.helper.StorageProvider;
+
+/**
+ * Files on the local file system. Paths of other file systems are accessed through the {@link StorageProvider} of Goobi.
+ */
+public class LocalStorageBackend implements StorageBackend {
+
+    public static final LocalStorageBackend INSTANCE = new LocalStorageBackend();
+
+    protected LocalStorageBackend() {
+    }
+
+    @Override
+    public List<FileIndex.Entry> list(Path folder, DirectoryStream.Filter<Path> filter) throws IOException {
+        List<FileIndex.Entry> entries = new ArrayList<>();
+        if (!StorageProvider.getInstance().isFileExists(folder)) {
+            return entries;
+        }
+        List<Path> files = filter == null ? StorageProvider.getInstance().listFiles(folder.toString())
+                : StorageProvider.getInstance().listFiles(folder.toString(), filter);
+        for (Path file : files) {
+            entries.add(stat(file));
+        }
+        return entries;
+    }
+
+    @Override
+    public FileIndex.Entry stat(Path file) throws IOException {
+        if (file.getFileSystem() == FileSystems.getDefault()) {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new FileIndex.Entry(file, attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+        return new FileIndex.Entry(file, StorageProvider.getInstance().getFileSize(file), StorageProvider.getInstance().getLastModifiedDate(file));
+    }
+
+    @Override
+    public Map<String, String> calculateChecksums(FileIndex.Entry file, List<String> algorithms) throws IOException {
+        return ChecksumCalculator.calculateChecksums(file.getPath(), algorithms);
+    }
+
+    @Override
+    public InputStream newInputStream(Path file) throws IOException {
+        return StorageProvider.getInstance().newInputStream(file);
+    }
+
+    @Override
+    public void copy(FileIndex.Entry source, Path target) throws IOException {
+        Files.copy(source.getPath(), target, NIOFileUtils.STANDARD_COPY_OPTIONS);
+    }
+}
@@ -0,0 +1,59 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang.StringUtils;
+
+import de.sub.goobi.helper.VariableReplacer;
+
+/**
+ * Precompiled value of a single &lt;manifestParameter&gt;. The configured value is split into its ;-separated candidates once per configuration.
+ * Constant candidates are used as they are, only candidates with ${...} placeholders are passed to the {@link VariableReplacer}. The candidates
+ * are evaluated in the configured order until the first one returns a value.
+ */
+public class ManifestTemplate {
+
+    private final List<String> candidates;
+
+    // true, if the candidate at the same position contains a placeholder
+    private final boolean[] placeholders;
+
+    public ManifestTemplate(List<String> values) {
+        List<String> list = new ArrayList<>(values.size());
+        for (String value : values) {
+            if (StringUtils.isNotBlank(value)) {
+                list.add(value);
+            }
+        }
+        candidates = Collections.unmodifiableList(list);
+        placeholders = new boolean[list.size()];
+        for (int i = 0; i < placeholders.length; i++) {
+            placeholders[i] = list.get(i).contains("${");
+        }
+    }
+
+    /**
+     * Get the first candidate with a value. A placeholder counts as unknown, if the replacer returns a blank value or the unchanged placeholder.
+     *
+     * @param replacer creates the replacer, only called if a placeholder needs to be replaced
+     * @param defaultValue returned, if no candidate has a value
+     * @return the value
+     */
+    public String resolve(Supplier<VariableReplacer> replacer, String defaultValue) {
+        for (int i = 0; i < placeholders.length; i++) {
+            String candidate = candidates.get(i);
+            if (!placeholders[i]) {
+                return candidate;
+            }
+            String value = replacer.get().replace(candidate);
+            if (StringUtils.isNotBlank(value) && !value.equals(candidate)) {
+                return value;
+            }
+        }
+        return defaultValue;
+    }
+
+}
@@ -0,0 +1,153 @@
+package de.intranda.goobi.plugins;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+
+/**
+ * Removes leading and trailing whitespace from all metadata values of a structure tree. The tree is walked with an explicit stack, so very deep
+ * trees cannot overflow the thread stack. Values without surrounding whitespace are left untouched.
+ *
+ * Trees with more than {@value #PARALLEL_THRESHOLD} elements, e.g. newspaper volumes with thousands of articles, are trimmed on a
+ * {@link ForkJoinPool}.
+ */
+public final class MetadataTrimmer {
+
+    // minimum number of elements to trim the tree in parallel
+    static final int PARALLEL_THRESHOLD = 10000;
+
+    // number of elements a single fork/join task trims without splitting
+    private static final int BATCH_SIZE = 512;
+
+    private MetadataTrimmer() {
+    }
+
+    /**
+     * Trim all metadata values of an element and all its descendants. Large trees are trimmed on the common fork/join pool.
+     *
+     * @param root the root element, can be null
+     * @return the number of changed values
+     */
+    public static int trim(DocStruct root) {
+        List<DocStruct> elements = collect(root);
+        if (elements.size() >= PARALLEL_THRESHOLD) {
+            return trim(elements, ForkJoinPool.commonPool());
+        }
+        return trimSequential(elements);
+    }
+
+    /**
+     * Trim the metadata values of the given elements on the current thread. The children of the elements are not trimmed.
+     *
+     * @param elements the elements, e.g. from {@link #collect(DocStruct)}
+     * @return the number of changed values
+     */
+    static int trimSequential(List<DocStruct> elements) {
+        int changed = 0;
+        for (DocStruct element : elements) {
+            changed += trimMetadata(element);
+        }
+        return changed;
+    }
+
+    /**
+     * Trim the metadata values of the given elements on a fork/join pool. The children of the elements are not trimmed.
+     *
+     * @param elements the elements, e.g. from {@link #collect(DocStruct)}
+     * @param pool the pool to use
+     * @return the number of changed values
+     */
+    public static int trim(List<DocStruct> elements, ForkJoinPool pool) {
+        return pool.invoke(new TrimTask(elements, 0, elements.size()));
+    }
+
+    /**
+     * List an element and all its descendants in depth first order
+     *
+     * @param root the root element, can be null
+     * @return all elements of the tree
+     */
+    public static List<DocStruct> collect(DocStruct root) {
+        List<DocStruct> elements = new ArrayList<>();
+        if (root == null) {
+            return elements;
+        }
+        Deque<DocStruct> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            DocStruct element = stack.pop();
+            elements.add(element);
+            List<DocStruct> children = element.getAllChildren();
+            if (children != null) {
+                // push in reverse order, so the children are visited in document order
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    stack.push(children.get(i));
+                }
+            }
+        }
+        return elements;
+    }
+
+    private static int trimMetadata(DocStruct element) {
+        List<Metadata> metadataList = element.getAllMetadata();
+        if (metadataList == null) {
+            return 0;
+        }
+        int changed = 0;
+        for (Metadata md : metadataList) {
+            String value = md.getValue();
+            if (needsTrim(value)) {
+                md.setValue(value.trim());
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    // same definition of whitespace as String.trim()
+    static boolean needsTrim(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        return value.charAt(0) <= ' ' || value.charAt(value.length() - 1) <= ' ';
+    }
+
+    private static class TrimTask extends RecursiveTask<Integer> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<DocStruct> elements;
+
+        private final int from;
+
+        private final int to;
+
+        TrimTask(List<DocStruct> elements, int from, int to) {
+            this.elements = elements;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to - from <= BATCH_SIZE) {
+                int changed = 0;
+                for (int i = from; i < to; i++) {
+                    changed += trimMetadata(elements.get(i));
+                }
+                return changed;
+            }
+            int middle = (from + to) >>> 1;
+            TrimTask left = new TrimTask(elements, from, middle);
+            left.fork();
+            int right = new TrimTask(elements, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package de.intranda.goobi.plugins;
+
+import lombok.Getter;
+
+/**
+ * A mets:file element of the METS fileSec
+ */
+@Getter
+public class MetsFileReference {
+
+    private final String fileGroup;
+    private final String id;
+    private final String href;
+
+    public MetsFileReference(String fileGroup, String id, String href) {
+        this.fileGroup = fileGroup;
+        this.id = id;
+        this.href = href;
+    }
+}
@@ -0,0 +1,296 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+/**
+ * Streams the METS file written by UGH into its final location. While copying, the checksums of the MASTER and ALTO files are added and the file
+ * group of the XML log is inserted. The METS document is never held in memory completely.
+ */
+public class MetsPostProcessor {
+
+    public static final String METS_NAMESPACE = "http://www.loc.gov/METS/";
+    public static final String XLINK_NAMESPACE = "http://www.w3.org/1999/xlink";
+
+    private static final String LOG_FILE_ID = "LOGFILE_0001";
+
+    private static final QName FILE_SEC = new QName(METS_NAMESPACE, "fileSec");
+    private static final QName FILE_GRP = new QName(METS_NAMESPACE, "fileGrp");
+    private static final QName FILE = new QName(METS_NAMESPACE, "file");
+    private static final QName FLOCAT = new QName(METS_NAMESPACE, "FLocat");
+    private static final QName STRUCT_MAP = new QName(METS_NAMESPACE, "structMap");
+    private static final QName DIV = new QName(METS_NAMESPACE, "div");
+    private static final QName USE = new QName("USE");
+    private static final QName ID = new QName("ID");
+    private static final QName HREF = new QName(XLINK_NAMESPACE, "href");
+    private static final QName CHECKSUM = new QName("CHECKSUM");
+    private static final QName CHECKSUMTYPE = new QName("CHECKSUMTYPE");
+
+    private final XMLEventFactory eventFactory = XMLEventFactory.newInstance();
+
+    private String logFileHref;
+    private String logFileChecksum;
+    // remove the indentation between elements
+    private boolean compact;
+
+    /**
+     * Add a file group for the XML log to the METS file
+     *
+     * @param href location of the log file
+     * @param checksum checksum of the log file
+     */
+    public void setLogFile(String href, String checksum) {
+        logFileHref = href;
+        logFileChecksum = checksum;
+    }
+
+    /**
+     * Write the METS file without the line breaks and indentation between the elements. Whitespace within the text of an element is kept.
+     *
+     * @param compact true to remove the indentation, false to keep the formatting of UGH
+     */
+    public void setCompact(boolean compact) {
+        this.compact = compact;
+    }
+
+    /**
+     * Get all files of the MASTER and ALTO file groups. Only the fileSec is read, the rest of the document is skipped.
+     *
+     * @param metsFile the METS file
+     * @return the files in document order
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public static List<MetsFileReference> listFiles(Path metsFile) throws IOException, XMLStreamException {
+        List<MetsFileReference> files = new ArrayList<>();
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(metsFile))) {
+            XMLEventReader reader = createInputFactory().createXMLEventReader(in);
+            String currentFileGroup = null;
+            String currentFileId = null;
+            try {
+                while (reader.hasNext()) {
+                    XMLEvent event = reader.nextEvent();
+                    if (event.isStartElement()) {
+                        StartElement element = event.asStartElement();
+                        if (FILE_GRP.equals(element.getName())) {
+                            currentFileGroup = getAttributeValue(element, USE);
+                        } else if (FILE.equals(element.getName())) {
+                            currentFileId = getAttributeValue(element, ID);
+                        } else if (FLOCAT.equals(element.getName()) && isHashedFileGroup(currentFileGroup)) {
+                            files.add(new MetsFileReference(currentFileGroup, currentFileId, getAttributeValue(element, HREF)));
+                        }
+                    } else if (event.isEndElement() && FILE_SEC.equals(event.asEndElement().getName())) {
+                        break;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Copy the METS file into a stream and add the checksums and the log file group
+     *
+     * @param source the METS file written by UGH
+     * @param out the stream to write into, it is not closed
+     * @param checksums checksums of the MASTER and ALTO files, the key is the ID of the mets:file element
+     * @param checksumType the algorithm used for the checksums
+     * @throws IOException
+     * @throws XMLStreamException
+     */
+    public void process(Path source, OutputStream out, Map<String, String> checksums, String checksumType) throws IOException, XMLStreamException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(source))) {
+            XMLEventReader reader = createInputFactory().createXMLEventReader(in);
+            XMLEventWriter writer = XMLOutputFactory.newInstance().createXMLEventWriter(out, "UTF-8");
+            try {
+                copy(reader, writer, checksums, checksumType);
+                writer.flush();
+            } finally {
+                reader.close();
+                writer.close();
+            }
+        }
+    }
+
+    private void copy(XMLEventReader reader, XMLEventWriter writer, Map<String, String> checksums, String checksumType) throws XMLStreamException {
+        String currentFileGroup = null;
+        int structMapCounter = 0;
+        int structMapDepth = 0;
+        boolean logPointerAdded = false;
+        // the added elements use the prefixes of the source document, taken from the fileSec
+        String metsPrefix = null;
+        String xlinkPrefix = null;
+        // whitespace is held back until the next event shows whether it is indentation or text
+        StringBuilder pendingWhitespace = null;
+        XMLEvent previousEvent = null;
+        // elements with text content so far, by depth, whitespace between their child elements is mixed content
+        BitSet elementsWithText = new BitSet();
+        int depth = 0;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (compact) {
+                if (event.isCharacters() && event.asCharacters().isWhiteSpace() && !event.asCharacters().isCData()) {
+                    if (pendingWhitespace == null) {
+                        pendingWhitespace = new StringBuilder();
+                    }
+                    pendingWhitespace.append(event.asCharacters().getData());
+                    continue;
+                }
+                if (pendingWhitespace != null) {
+                    if (elementsWithText.get(depth) || isText(previousEvent, event, pendingWhitespace)) {
+                        writer.add(eventFactory.createCharacters(pendingWhitespace.toString()));
+                    }
+                    pendingWhitespace = null;
+                }
+                if (event.isStartElement()) {
+                    elementsWithText.clear(++depth);
+                } else if (event.isEndElement()) {
+                    depth--;
+                } else if (event.isCharacters()) {
+                    elementsWithText.set(depth);
+                }
+                previousEvent = event;
+            }
+            if (event.isStartElement()) {
+                StartElement element = event.asStartElement();
+                QName name = element.getName();
+                if (structMapDepth > 0) {
+                    structMapDepth++;
+                }
+                if (FILE_SEC.equals(name)) {
+                    metsPrefix = name.getPrefix();
+                    xlinkPrefix = element.getNamespaceContext().getPrefix(XLINK_NAMESPACE);
+                } else if (FILE_GRP.equals(name)) {
+                    currentFileGroup = getAttributeValue(element, USE);
+                } else if (FILE.equals(name) && isHashedFileGroup(currentFileGroup)) {
+                    String checksum = checksums.get(getAttributeValue(element, ID));
+                    if (checksum != null) {
+                        event = addChecksum(element, checksum, checksumType);
+                    }
+                } else if (STRUCT_MAP.equals(name)) {
+                    structMapCounter++;
+                    if (structMapCounter == 1) {
+                        structMapDepth = 1;
+                    }
+                }
+                writer.add(event);
+                // the log file is referenced by the first div of the first structMap
+                if (logFileHref != null && !logPointerAdded && structMapDepth == 2 && DIV.equals(name)) {
+                    String prefix = metsPrefix == null ? name.getPrefix() : metsPrefix;
+                    writer.add(eventFactory.createStartElement(prefix, METS_NAMESPACE, "fptr"));
+                    writer.add(eventFactory.createAttribute("FILEID", LOG_FILE_ID));
+                    writer.add(eventFactory.createEndElement(prefix, METS_NAMESPACE, "fptr"));
+                    logPointerAdded = true;
+                }
+                continue;
+            }
+            if (event.isEndElement()) {
+                QName name = event.asEndElement().getName();
+                if (structMapDepth > 0) {
+                    structMapDepth--;
+                }
+                if (FILE_GRP.equals(name)) {
+                    currentFileGroup = null;
+                } else if (FILE_SEC.equals(name) && logFileHref != null) {
+                    writeLogFileGroup(writer, name.getPrefix(), xlinkPrefix, checksumType);
+                }
+            }
+            writer.add(event);
+        }
+    }
+
+    private void writeLogFileGroup(XMLEventWriter writer, String metsPrefix, String xlinkPrefix, String checksumType) throws XMLStreamException {
+        writer.add(eventFactory.createStartElement(metsPrefix, METS_NAMESPACE, "fileGrp"));
+        writer.add(eventFactory.createAttribute("USE", "LOG"));
+        writer.add(eventFactory.createStartElement(metsPrefix, METS_NAMESPACE, "file"));
+        writer.add(eventFactory.createAttribute("ID", LOG_FILE_ID));
+        writer.add(eventFactory.createAttribute("MIMETYPE", "application/xml"));
+        writer.add(eventFactory.createAttribute("CHECKSUM", logFileChecksum));
+        writer.add(eventFactory.createAttribute("CHECKSUMTYPE", checksumType));
+        writer.add(eventFactory.createStartElement(metsPrefix, METS_NAMESPACE, "FLocat"));
+        writer.add(eventFactory.createAttribute("LOCTYPE", "URL"));
+        if (xlinkPrefix == null) {
+            // the xlink namespace is not declared in the scope of the fileSec
+            xlinkPrefix = "xlink";
+            writer.add(eventFactory.createNamespace(xlinkPrefix, XLINK_NAMESPACE));
+        }
+        writer.add(eventFactory.createAttribute(xlinkPrefix, XLINK_NAMESPACE, "href", logFileHref));
+        writer.add(eventFactory.createEndElement(metsPrefix, METS_NAMESPACE, "FLocat"));
+        writer.add(eventFactory.createEndElement(metsPrefix, METS_NAMESPACE, "file"));
+        writer.add(eventFactory.createEndElement(metsPrefix, METS_NAMESPACE, "fileGrp"));
+    }
+
+    private StartElement addChecksum(StartElement element, String checksum, String checksumType) {
+        List<Attribute> attributes = new ArrayList<>();
+        Iterator<Attribute> iterator = element.getAttributes();
+        while (iterator.hasNext()) {
+            Attribute attribute = iterator.next();
+            if (!CHECKSUM.equals(attribute.getName()) && !CHECKSUMTYPE.equals(attribute.getName())) {
+                attributes.add(attribute);
+            }
+        }
+        attributes.add(eventFactory.createAttribute(CHECKSUM, checksum));
+        attributes.add(eventFactory.createAttribute(CHECKSUMTYPE, checksumType));
+        return eventFactory.createStartElement(element.getName(), attributes.iterator(), element.getNamespaces());
+    }
+
+    private static boolean isHashedFileGroup(String fileGroup) {
+        return "MASTER".equals(fileGroup) || "ALTO".equals(fileGroup);
+    }
+
+    private static String getAttributeValue(StartElement element, QName name) {
+        Attribute attribute = element.getAttributeByName(name);
+        return attribute == null ? null : attribute.getValue();
+    }
+
+    /**
+     * Check if whitespace between two events belongs to the text of an element. This is the case if it is next to other text, if it is the only
+     * content of an element or if it does not contain a line break, e.g. the space between two inline elements.
+     */
+    private static boolean isText(XMLEvent previousEvent, XMLEvent nextEvent, CharSequence whitespace) {
+        if (previousEvent == null) {
+            return false;
+        }
+        return previousEvent.isCharacters() || nextEvent.isCharacters() || (previousEvent.isStartElement() && nextEvent.isEndElement())
+                || !containsLineBreak(whitespace);
+    }
+
+    private static boolean containsLineBreak(CharSequence whitespace) {
+        for (int i = 0; i < whitespace.length(); i++) {
+            char c = whitespace.charAt(i);
+            if (c == '\n' || c == '\r') {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        return factory;
+    }
+}
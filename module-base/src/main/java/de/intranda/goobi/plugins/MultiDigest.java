@@ -0,0 +1,145 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Updates several checksum algorithms from the same data, so a file needs to be read only once for all of them. Besides all
+ * {@link MessageDigest} algorithms the fast, non cryptographic {@value #CRC32C} is supported.
+ *
+ * The algorithm instances are reused for all files hashed by the same thread. Therefore an instance must be finished before the next one is
+ * created on the same thread.
+ */
+@Log4j2
+public class MultiDigest {
+
+    public static final String CRC32C = "CRC32C";
+
+    // algorithm instances of the current thread, by name
+    private static final ThreadLocal<Map<String, Object>> INSTANCES = ThreadLocal.withInitial(HashMap::new);
+
+    private final List<String> algorithms;
+
+    // for each algorithm either the message digest or the checksum is set
+    private final MessageDigest[] digests;
+    private final Checksum[] checksums;
+
+    private MultiDigest(List<String> algorithms, MessageDigest[] digests, Checksum[] checksums) {
+        this.algorithms = algorithms;
+        this.digests = digests;
+        this.checksums = checksums;
+    }
+
+    /**
+     * @param algorithms the algorithms to calculate
+     * @return a new instance
+     * @throws IOException if an algorithm is not supported
+     */
+    public static MultiDigest create(List<String> algorithms) throws IOException {
+        MessageDigest[] digests = new MessageDigest[algorithms.size()];
+        Checksum[] checksums = new Checksum[algorithms.size()];
+        Map<String, Object> instances = INSTANCES.get();
+        for (int i = 0; i < algorithms.size(); i++) {
+            String algorithm = algorithms.get(i);
+            Object instance = instances.get(algorithm);
+            if (instance == null) {
+                instance = createInstance(algorithm);
+                instances.put(algorithm, instance);
+            }
+            // a previous calculation may have been aborted
+            if (instance instanceof MessageDigest) {
+                digests[i] = (MessageDigest) instance;
+                digests[i].reset();
+            } else {
+                checksums[i] = (Checksum) instance;
+                checksums[i].reset();
+            }
+        }
+        return new MultiDigest(algorithms, digests, checksums);
+    }
+
+    private static Object createInstance(String algorithm) throws IOException {
+        if (CRC32C.equals(algorithm)) {
+            return new CRC32C();
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            log.error("Algorithm not supported", e);
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Check if an algorithm can be used
+     *
+     * @param algorithm name of the algorithm
+     * @return true, if the algorithm is supported
+     */
+    public static boolean isSupported(String algorithm) {
+        if (CRC32C.equals(algorithm)) {
+            return true;
+        }
+        try {
+            MessageDigest.getInstance(algorithm);
+            return true;
+        } catch (NoSuchAlgorithmException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Update all algorithms with the remaining bytes of the buffer. Afterwards the position of the buffer is its limit.
+     */
+    public void update(ByteBuffer buffer) {
+        int start = buffer.position();
+        for (int i = 0; i < algorithms.size(); i++) {
+            buffer.position(start);
+            if (digests[i] != null) {
+                digests[i].update(buffer);
+            } else {
+                checksums[i].update(buffer);
+            }
+        }
+        buffer.position(buffer.limit());
+    }
+
+    public void update(byte[] bytes, int offset, int length) {
+        for (int i = 0; i < algorithms.size(); i++) {
+            if (digests[i] != null) {
+                digests[i].update(bytes, offset, length);
+            } else {
+                checksums[i].update(bytes, offset, length);
+            }
+        }
+    }
+
+    /**
+     * Finish the calculation
+     *
+     * @return the hex encoded checksums, by algorithm and in the order of the algorithms
+     */
+    public Map<String, String> finish() {
+        Map<String, String> result = new LinkedHashMap<>();
+        for (int i = 0; i < algorithms.size(); i++) {
+            if (digests[i] != null) {
+                result.put(algorithms.get(i), ChecksumCalculator.getShaString(digests[i].digest()));
+            } else {
+                long value = checksums[i].getValue();
+                byte[] bytes = { (byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value };
+                result.put(algorithms.get(i), ChecksumCalculator.getShaString(bytes));
+            }
+        }
+        return result;
+    }
+}
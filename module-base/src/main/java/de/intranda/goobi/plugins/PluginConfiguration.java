@@ -0,0 +1,147 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.configuration.XMLConfiguration;
+import org.apache.commons.configuration.tree.xpath.XPathExpressionEngine;
+
+import de.sub.goobi.config.ConfigPlugins;
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Parses the plugin configuration once and keeps all &lt;config&gt; blocks in memory, indexed by project and step. The file is parsed again only
+ * if it was changed. The lookup of a configuration is thread safe.
+ */
+@Log4j2
+public final class PluginConfiguration {
+
+    private static final String WILDCARD = "*";
+
+    // minimum interval between two checks of the modification date
+    private static final long REFRESH_DELAY = 5000;
+
+    private static volatile Snapshot snapshot;
+
+    private PluginConfiguration() {
+    }
+
+    /**
+     * Get the configuration for a project and a step. The order of configuration is:
+     * <ol>
+     * <li>project name and step name matches</li>
+     * <li>step name matches and project is *</li>
+     * <li>project name matches and step name is *</li>
+     * <li>project name and step name are *</li>
+     * </ol>
+     *
+     * @param projectName name of the project
+     * @param stepName name of the step
+     * @return the configuration or null, if no block matches
+     */
+    public static ExportConfiguration getConfiguration(String projectName, String stepName) {
+        Snapshot current = getSnapshot();
+        String key = createKey(projectName, stepName);
+        ExportConfiguration config = current.resolved.get(key);
+        if (config == null) {
+            config = current.resolve(projectName, stepName);
+            if (config != null) {
+                current.resolved.put(key, config);
+            }
+        }
+        return config;
+    }
+
+    private static Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        long now = System.currentTimeMillis();
+        if (current != null && now - current.lastCheck < REFRESH_DELAY) {
+            return current;
+        }
+        synchronized (PluginConfiguration.class) {
+            current = snapshot;
+            if (current != null && now - current.lastCheck < REFRESH_DELAY) {
+                return current;
+            }
+            long lastModified = getLastModified();
+            if (current == null || current.lastModified != lastModified) {
+                current = new Snapshot(lastModified, parse());
+            } else {
+                current = current.checkedAt(now);
+            }
+            snapshot = current;
+            return current;
+        }
+    }
+
+    private static long getLastModified() {
+        Path configFile = Paths.get(ConfigurationHelper.getInstance().getConfigurationFolder(), "plugin_" + EwigExportPlugin.PLUGIN_NAME + ".xml");
+        try {
+            return Files.getLastModifiedTime(configFile).toMillis();
+        } catch (IOException e) {
+            log.error("Cannot read modification date of " + configFile, e);
+            return 0;
+        }
+    }
+
+    private static Map<String, ExportConfiguration> parse() {
+        XMLConfiguration xmlConfig = ConfigPlugins.getPluginConfig(EwigExportPlugin.PLUGIN_NAME);
+        xmlConfig.setExpressionEngine(new XPathExpressionEngine());
+        Map<String, ExportConfiguration> blocks = new HashMap<>();
+        for (HierarchicalConfiguration block : xmlConfig.configurationsAt("config")) {
+            ExportConfiguration config = new ExportConfiguration(block);
+            for (String project : block.getStringArray("project")) {
+                for (String step : block.getStringArray("step")) {
+                    blocks.putIfAbsent(createKey(project, step), config);
+                }
+            }
+        }
+        return Collections.unmodifiableMap(blocks);
+    }
+
+    private static String createKey(String projectName, String stepName) {
+        return projectName + "\u0000" + stepName;
+    }
+
+    private static class Snapshot {
+        private final long lastModified;
+        private final long lastCheck;
+        private final Map<String, ExportConfiguration> blocks;
+        private final Map<String, ExportConfiguration> resolved;
+
+        private Snapshot(long lastModified, Map<String, ExportConfiguration> blocks) {
+            this(lastModified, System.currentTimeMillis(), blocks, new ConcurrentHashMap<>());
+        }
+
+        private Snapshot(long lastModified, long lastCheck, Map<String, ExportConfiguration> blocks, Map<String, ExportConfiguration> resolved) {
+            this.lastModified = lastModified;
+            this.lastCheck = lastCheck;
+            this.blocks = blocks;
+            this.resolved = resolved;
+        }
+
+        private Snapshot checkedAt(long time) {
+            return new Snapshot(lastModified, time, blocks, resolved);
+        }
+
+        private ExportConfiguration resolve(String projectName, String stepName) {
+            for (String key : List.of(createKey(projectName, stepName), createKey(WILDCARD, stepName), createKey(projectName, WILDCARD),
+                    createKey(WILDCARD, WILDCARD))) {
+                ExportConfiguration config = blocks.get(key);
+                if (config != null) {
+                    return config;
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.configuration.HierarchicalConfiguration;
+import org.apache.commons.lang.StringUtils;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CopyPartRequest;
+import com.amazonaws.services.s3.model.GetObjectRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ListObjectsV2Request;
+import com.amazonaws.services.s3.model.ListObjectsV2Result;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
+
+import de.sub.goobi.config.ConfigurationHelper;
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Files of a local folder that are stored as objects in an S3 compatible object store. A path below the configured path prefix, by default the
+ * metadata folder of Goobi, is mapped to a key in the bucket, e.g. /opt/digiverso/goobi/metadata/12/images/master_media/00000001.tif to
+ * 12/images/master_media/00000001.tif. Other paths are rejected with an {@link IOException} instead of being read from the local file system, so
+ * a wrong prefix cannot mix local files into the export. Only the target of a copy can be a local file.
+ *
+ * Large objects are read as ranges of {@code partSize} bytes, several ranges are requested at the same time. The checksums are still calculated
+ * over the parts in their order. Copies within the bucket are done by the server.
+ */
+@Log4j2
+public class S3StorageBackend implements StorageBackend {
+
+    private static final long MEGABYTE = 1024L * 1024L;
+
+    // largest object that can be copied with a single request
+    private static final long MAX_SINGLE_COPY_SIZE = 5L * 1024L * MEGABYTE;
+
+    // shared instances by location, i.e. endpoint, region, bucket, access key and prefixes
+    private static final Map<String, S3StorageBackend> INSTANCES = new HashMap<>();
+
+    private static boolean shutdownHookRegistered;
+
+    private final AmazonS3 client;
+
+    private final String bucket;
+
+    private final Path pathPrefix;
+
+    private final String keyPrefix;
+
+    private final int partSize;
+
+    private final int readThreads;
+
+    private final ExecutorService executor;
+
+    // hash of the secret key and the remaining settings of a shared instance, the secret itself is not kept
+    private String settings;
+
+    /**
+     * @param client the S3 client
+     * @param bucket the bucket
+     * @param pathPrefix local folder that is stored in the bucket
+     * @param keyPrefix prefix of the keys for this folder, can be empty
+     * @param partSize size of a single range request in bytes
+     * @param readThreads number of range requests at the same time
+     */
+    public S3StorageBackend(AmazonS3 client, String bucket, Path pathPrefix, String keyPrefix, int partSize, int readThreads) {
+        this.client = client;
+        this.bucket = bucket;
+        this.pathPrefix = pathPrefix.toAbsolutePath().normalize();
+        this.keyPrefix = StringUtils.isBlank(keyPrefix) || keyPrefix.endsWith("/") ? StringUtils.defaultString(keyPrefix) : keyPrefix + "/";
+        this.partSize = Math.max(1, partSize);
+        this.readThreads = Math.max(1, readThreads);
+        AtomicInteger threadCounter = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(this.readThreads, r -> {
+            Thread thread = new Thread(r, "lza-s3-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the backend for a &lt;storage type="s3"&gt; configuration. Configurations with the same location share one client and one thread pool. If
+     * the secret key, the part size or the number of read threads of a location changed, the previous backend is closed and replaced. Without a
+     * configured path prefix the metadata folder of Goobi is used.
+     *
+     * @param config the &lt;config&gt; block of the plugin configuration
+     * @return the backend
+     */
+    public static synchronized S3StorageBackend getInstance(HierarchicalConfiguration config) {
+        String endpoint = config.getString("/storage/endpoint", "");
+        String region = config.getString("/storage/region", "us-east-1");
+        String bucket = config.getString("/storage/bucket", "");
+        String accessKey = config.getString("/storage/accessKey", "");
+        String secretKey = config.getString("/storage/secretKey", "");
+        String pathPrefix = config.getString("/storage/pathPrefix", "");
+        if (StringUtils.isBlank(pathPrefix)) {
+            pathPrefix = ConfigurationHelper.getInstance().getMetadataFolder();
+        }
+        String keyPrefix = config.getString("/storage/keyPrefix", "");
+        int partSize = config.getInt("/storage/partSize", 8);
+        int readThreads = config.getInt("/storage/readThreads", 8);
+        String prefix = pathPrefix;
+        String key = String.join("|", endpoint, region, bucket, accessKey, prefix, keyPrefix);
+        String settings = hashSettings(secretKey, partSize, readThreads);
+        S3StorageBackend existing = INSTANCES.get(key);
+        if (existing != null && existing.settings.equals(settings)) {
+            return existing;
+        }
+        AmazonS3ClientBuilder builder = AmazonS3ClientBuilder.standard().withPathStyleAccessEnabled(true);
+        if (StringUtils.isNotBlank(endpoint)) {
+            builder.withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(endpoint, region));
+        } else {
+            builder.withRegion(region);
+        }
+        if (StringUtils.isNotBlank(accessKey)) {
+            builder.withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(accessKey, secretKey)));
+        }
+        S3StorageBackend backend = new S3StorageBackend(builder.build(), bucket, Paths.get(prefix), keyPrefix, (int) (partSize * MEGABYTE), readThreads);
+        backend.settings = settings;
+        INSTANCES.put(key, backend);
+        if (existing != null) {
+            log.info("S3 configuration for bucket " + bucket + " changed, the previous client is closed");
+            existing.close();
+        }
+        if (!shutdownHookRegistered) {
+            Runtime.getRuntime().addShutdownHook(new Thread(S3StorageBackend::shutdown, "lza-s3-shutdown"));
+            shutdownHookRegistered = true;
+        }
+        return backend;
+    }
+
+    private static String hashSettings(String secretKey, int partSize, int readThreads) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((secretKey + "|" + partSize + "|" + readThreads).getBytes(StandardCharsets.UTF_8));
+            return ChecksumCalculator.getShaString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Close all backends created by {@link #getInstance(HierarchicalConfiguration)}, e.g. when Goobi is shut down
+     */
+    public static synchronized void shutdown() {
+        for (S3StorageBackend backend : INSTANCES.values()) {
+            backend.close();
+        }
+        INSTANCES.clear();
+    }
+
+    /**
+     * Stop the thread pool and release the connections of the client. Reads of exports that still use this backend fail afterwards.
+     */
+    public void close() {
+        executor.shutdown();
+        client.shutdown();
+    }
+
+    /**
+     * @return true, if the file is stored in the bucket
+     */
+    public boolean contains(Path file) {
+        return file.toAbsolutePath().normalize().startsWith(pathPrefix);
+    }
+
+    // key of a file in the bucket, files outside of the path prefix are not stored in the bucket
+    private String requireKey(Path file) throws IOException {
+        if (!contains(file)) {
+            throw new IOException(file + " is not below the S3 path prefix " + pathPrefix);
+        }
+        return getKey(file);
+    }
+
+    String getKey(Path file) {
+        Path relative = pathPrefix.relativize(file.toAbsolutePath().normalize());
+        StringBuilder key = new StringBuilder(keyPrefix);
+        for (int i = 0; i < relative.getNameCount(); i++) {
+            if (i > 0) {
+                key.append('/');
+            }
+            key.append(relative.getName(i).toString());
+        }
+        return key.toString();
+    }
+
+    @Override
+    public List<FileIndex.Entry> list(Path folder, DirectoryStream.Filter<Path> filter) throws IOException {
+        String prefix = requireKey(folder);
+        if (!prefix.isEmpty() && !prefix.endsWith("/")) {
+            prefix = prefix + "/";
+        }
+        // one request returns size and modification date of up to 1000 files
+        List<FileIndex.Entry> entries = new ArrayList<>();
+        ListObjectsV2Request request = new ListObjectsV2Request().withBucketName(bucket).withPrefix(prefix).withDelimiter("/");
+        try {
+            ListObjectsV2Result result;
+            do {
+                result = client.listObjectsV2(request);
+                for (S3ObjectSummary summary : result.getObjectSummaries()) {
+                    Path file = folder.resolve(summary.getKey().substring(prefix.length()));
+                    if (filter == null || filter.accept(file)) {
+                        entries.add(new FileIndex.Entry(file, summary.getSize(), summary.getLastModified().getTime()));
+                    }
+                }
+                request.setContinuationToken(result.getNextContinuationToken());
+            } while (result.isTruncated());
+        } catch (SdkClientException e) {
+            throw new IOException("Cannot list " + folder, e);
+        }
+        return entries;
+    }
+
+    @Override
+    public FileIndex.Entry stat(Path file) throws IOException {
+        String key = requireKey(file);
+        try {
+            ObjectMetadata metadata = client.getObjectMetadata(bucket, key);
+            return new FileIndex.Entry(file, metadata.getContentLength(), metadata.getLastModified().getTime());
+        } catch (SdkClientException e) {
+            throw toIOException(file, e);
+        }
+    }
+
+    @Override
+    public Map<String, String> calculateChecksums(FileIndex.Entry entry, List<String> algorithms) throws IOException {
+        Path file = entry.getPath();
+        String key = requireKey(file);
+        long size = entry.getSize();
+        MultiDigest digest = MultiDigest.create(algorithms);
+        // keep readThreads ranges in flight, the digests are updated in the order of the ranges
+        Deque<Future<byte[]>> pendingParts = new ArrayDeque<>();
+        long nextPart = 0;
+        try {
+            while (nextPart < size || !pendingParts.isEmpty()) {
+                while (nextPart < size && pendingParts.size() < readThreads) {
+                    long start = nextPart;
+                    long end = Math.min(size, start + partSize) - 1;
+                    pendingParts.add(executor.submit(() -> readRange(file, key, start, end)));
+                    nextPart = end + 1;
+                }
+                byte[] part = waitFor(pendingParts.poll());
+                digest.update(part, 0, part.length);
+            }
+        } finally {
+            for (Future<byte[]> part : pendingParts) {
+                part.cancel(true);
+            }
+        }
+        return digest.finish();
+    }
+
+    @Override
+    public InputStream newInputStream(Path file) throws IOException {
+        String key = requireKey(file);
+        try {
+            return client.getObject(bucket, key).getObjectContent();
+        } catch (SdkClientException e) {
+            throw toIOException(file, e);
+        }
+    }
+
+    @Override
+    public void copy(FileIndex.Entry source, Path target) throws IOException {
+        String key = requireKey(source.getPath());
+        if (contains(target)) {
+            copyInBucket(source, key, getKey(target));
+        } else {
+            download(source, key, target);
+        }
+    }
+
+    // server side copy, objects larger than 5 GB are copied in parts
+    private void copyInBucket(FileIndex.Entry source, String sourceKey, String targetKey) throws IOException {
+        try {
+            if (source.getSize() <= MAX_SINGLE_COPY_SIZE) {
+                client.copyObject(bucket, sourceKey, bucket, targetKey);
+                return;
+            }
+            String uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, targetKey)).getUploadId();
+            try {
+                List<Callable<PartETag>> parts = new ArrayList<>();
+                long copyPartSize = Math.max(partSize, 64 * MEGABYTE);
+                int partNumber = 1;
+                for (long start = 0; start < source.getSize(); start += copyPartSize) {
+                    CopyPartRequest request = new CopyPartRequest().withSourceBucketName(bucket)
+                            .withSourceKey(sourceKey)
+                            .withDestinationBucketName(bucket)
+                            .withDestinationKey(targetKey)
+                            .withUploadId(uploadId)
+                            .withFirstByte(start)
+                            .withLastByte(Math.min(source.getSize(), start + copyPartSize) - 1)
+                            .withPartNumber(partNumber++);
+                    parts.add(() -> client.copyPart(request).getPartETag());
+                }
+                List<PartETag> etags = new ArrayList<>(parts.size());
+                for (Future<PartETag> part : executor.invokeAll(parts)) {
+                    etags.add(waitFor(part));
+                }
+                client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, targetKey, uploadId, etags));
+            } catch (InterruptedException e) {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, targetKey, uploadId));
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Copy of " + source.getPath() + " was interrupted");
+            } catch (IOException | RuntimeException e) {
+                client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, targetKey, uploadId));
+                throw e;
+            }
+        } catch (SdkClientException e) {
+            throw toIOException(source.getPath(), e);
+        }
+    }
+
+    // download all ranges in parallel, each range is written at its own position of the target file
+    private void download(FileIndex.Entry source, String key, Path target) throws IOException {
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Future<Void>> parts = new ArrayList<>();
+            for (long start = 0; start < source.getSize(); start += partSize) {
+                long position = start;
+                long end = Math.min(source.getSize(), start + partSize) - 1;
+                parts.add(executor.submit(() -> {
+                    ByteBuffer buffer = ByteBuffer.wrap(readRange(source.getPath(), key, position, end));
+                    long offset = position;
+                    while (buffer.hasRemaining()) {
+                        offset += channel.write(buffer, offset);
+                    }
+                    return null;
+                }));
+            }
+            try {
+                for (Future<Void> part : parts) {
+                    waitFor(part);
+                }
+            } finally {
+                for (Future<Void> part : parts) {
+                    part.cancel(true);
+                }
+            }
+        }
+        Files.setLastModifiedTime(target, FileTime.fromMillis(source.getLastModified()));
+    }
+
+    private byte[] readRange(Path file, String key, long start, long end) throws IOException {
+        byte[] data = new byte[(int) (end - start + 1)];
+        try (S3Object object = client.getObject(new GetObjectRequest(bucket, key).withRange(start, end));
+                InputStream in = object.getObjectContent()) {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = in.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of " + file + " at byte " + (start + offset));
+                }
+                offset += read;
+            }
+        } catch (SdkClientException e) {
+            throw toIOException(file, e);
+        }
+        return data;
+    }
+
+    private static <T> T waitFor(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading from S3");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static IOException toIOException(Path file, SdkClientException e) {
+        if (e instanceof AmazonServiceException && ((AmazonServiceException) e).getStatusCode() == 404) {
+            return new NoSuchFileException(file.toString());
+        }
+        log.error("S3 request for " + file + " failed", e);
+        return new IOException("S3 request for " + file + " failed", e);
+    }
+}
@@ -0,0 +1,94 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes the tab separated lines of the files the export keeps in the process data directory, the {@link ExportJournal} and the
+ * {@link ExportState}. Both use the same line for a file:
+ *
+ * <pre>
+ * FILE	size	last modified	algorithm:checksum;algorithm:checksum	path
+ * </pre>
+ */
+final class SidecarFile {
+
+    static final String SEPARATOR = "\t";
+
+    static final String FILE_LINE = "FILE";
+
+    private SidecarFile() {
+    }
+
+    /**
+     * Read the fields of all complete lines. A last line without line break was not written completely, e.g. because of a crash, and is skipped.
+     *
+     * @param file the file to read
+     * @return the fields of each line, in the order of the file
+     * @throws IOException if the file cannot be read
+     */
+    static List<String[]> readLines(Path file) throws IOException {
+        String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        List<String[]> lines = new ArrayList<>();
+        int start = 0;
+        int end;
+        while ((end = content.indexOf('\n', start)) != -1) {
+            String line = content.substring(start, end > start && content.charAt(end - 1) == '\r' ? end - 1 : end);
+            lines.add(line.split(SEPARATOR, -1));
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Parse the fields of a file line
+     *
+     * @param fields the fields of the line, starting with {@value #FILE_LINE}
+     * @return the state of the file or null, if the line is not a valid file line
+     */
+    static ExportState.FileState parseFileLine(String[] fields) {
+        if (fields.length != 5 || !FILE_LINE.equals(fields[0]) || fields[4].isEmpty()) {
+            return null;
+        }
+        Map<String, String> checksums = new LinkedHashMap<>();
+        for (String checksum : fields[3].split(";")) {
+            int index = checksum.indexOf(':');
+            if (index > 0) {
+                checksums.put(checksum.substring(0, index), checksum.substring(index + 1));
+            }
+        }
+        try {
+            return new ExportState.FileState(Long.parseLong(fields[1]), Long.parseLong(fields[2]), checksums);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Create a file line, without line break
+     *
+     * @param path the path of the file
+     * @param size the size of the file
+     * @param lastModified the modification date of the file
+     * @param checksums the checksums, by algorithm
+     * @return the line
+     */
+    static String formatFileLine(String path, long size, long lastModified, Map<String, String> checksums) {
+        StringBuilder line = new StringBuilder(FILE_LINE).append(SEPARATOR).append(size).append(SEPARATOR).append(lastModified).append(SEPARATOR);
+        boolean first = true;
+        for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+            if (!first) {
+                line.append(';');
+            }
+            line.append(checksum.getKey()).append(':').append(checksum.getValue());
+            first = false;
+        }
+        return line.append(SEPARATOR).append(path).toString();
+    }
+}
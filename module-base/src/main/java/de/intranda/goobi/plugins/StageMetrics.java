@@ -0,0 +1,34 @@
+package de.intranda.goobi.plugins;
+
+import lombok.Getter;
+
+/**
+ * Wall time and amount of data of a single stage of an export
+ */
+@Getter
+public class StageMetrics {
+
+    private long durationNanos;
+    private long bytes;
+    private int files;
+
+    void add(long durationNanos, long bytes, int files) {
+        this.durationNanos += durationNanos;
+        this.bytes += bytes;
+        this.files += files;
+    }
+
+    public long getDurationMillis() {
+        return durationNanos / 1_000_000;
+    }
+
+    /**
+     * @return the throughput of this stage in MB/s or 0, if the stage processed no data
+     */
+    public double getMegabytesPerSecond() {
+        if (durationNanos <= 0 || bytes == 0) {
+            return 0;
+        }
+        return (bytes / 1_048_576d) / (durationNanos / 1_000_000_000d);
+    }
+}
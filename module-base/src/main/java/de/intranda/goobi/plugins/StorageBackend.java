@@ -0,0 +1,63 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Access to the files of an export. The default implementation {@link LocalStorageBackend} uses the local file system and the
+ * {@link de.sub.goobi.helper.StorageProvider}, {@link S3StorageBackend} reads the files of the metadata folder from an S3 compatible object store.
+ */
+public interface StorageBackend {
+
+    /**
+     * List the files of a folder
+     *
+     * @param folder the folder
+     * @param filter filter for the files, can be null
+     * @return the files with size and modification date, an empty list if the folder does not exist
+     * @throws IOException if the folder cannot be listed
+     */
+    List<FileIndex.Entry> list(Path folder, DirectoryStream.Filter<Path> filter) throws IOException;
+
+    /**
+     * Get size and modification date of a file
+     *
+     * @param file the file
+     * @return the attributes of the file
+     * @throws java.nio.file.NoSuchFileException if the file does not exist
+     * @throws IOException if the attributes cannot be read
+     */
+    FileIndex.Entry stat(Path file) throws IOException;
+
+    /**
+     * Calculate the checksums of a file on the calling thread. All algorithms are updated from the same read.
+     *
+     * @param file the file to hash, with the attributes from {@link #list(Path, DirectoryStream.Filter)} or {@link #stat(Path)}
+     * @param algorithms the algorithms to calculate
+     * @return the hex encoded checksums, by algorithm
+     * @throws IOException if the file is missing or cannot be read
+     */
+    Map<String, String> calculateChecksums(FileIndex.Entry file, List<String> algorithms) throws IOException;
+
+    /**
+     * Open a file for sequential reading
+     *
+     * @param file the file
+     * @return the content of the file, must be closed by the caller
+     * @throws IOException if the file is missing or cannot be read
+     */
+    InputStream newInputStream(Path file) throws IOException;
+
+    /**
+     * Copy a file. If source and target are in the same object store, the copy is done by the server.
+     *
+     * @param source the source file, with the attributes from {@link #list(Path, DirectoryStream.Filter)} or {@link #stat(Path)}
+     * @param target the target file, an existing file is replaced
+     * @throws IOException if the file cannot be copied
+     */
+    void copy(FileIndex.Entry source, Path target) throws IOException;
+}
@@ -0,0 +1,198 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.extern.log4j.Log4j2;
+
+/**
+ * Streams all files of an export into a single tar archive, structured as BagIt bag. The checksums of the files are calculated while they are
+ * written into the archive, so each file is read only once. The archive is written into a temporary file and moved into its final location, when
+ * the package is complete.
+ *
+ * <pre>
+ * &lt;title&gt;/bagit.txt
+ * &lt;title&gt;/manifest-sha256.txt
+ * &lt;title&gt;/tagmanifest-sha256.txt
+ * &lt;title&gt;/data/&lt;title&gt;.xml
+ * &lt;title&gt;/data/&lt;title&gt;_anchor.xml
+ * &lt;title&gt;/data/submission-manifest.txt
+ * &lt;title&gt;/data/submissionDocumentation/&lt;title&gt;_log.xml
+ * &lt;title&gt;/data/MASTER/...
+ * &lt;title&gt;/data/ALTO/...
+ * </pre>
+ */
+@Log4j2
+public class SubmissionPackage implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private final Path target;
+
+    private final Path tempFile;
+
+    private final String rootFolder;
+
+    private final List<String> algorithms;
+
+    private final List<String> manifestAlgorithms;
+
+    private final StorageBackend storageBackend;
+
+    private final TarWriter tar;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    // path inside of the bag and checksums of all payload files
+    private final Map<String, Map<String, String>> payload = new LinkedHashMap<>();
+
+    private int numberOfFiles;
+
+    private boolean committed;
+
+    /**
+     * @param target the tar file to create
+     * @param rootFolder name of the bag folder inside of the archive
+     * @param algorithms the algorithms to calculate for each file
+     * @param manifestAlgorithms the algorithms to write BagIt manifests for, must be included in algorithms
+     * @param storageBackend the storage of the payload files
+     * @throws IOException if the archive cannot be created
+     */
+    public SubmissionPackage(Path target, String rootFolder, List<String> algorithms, List<String> manifestAlgorithms,
+            StorageBackend storageBackend) throws IOException {
+        this.target = target;
+        this.rootFolder = rootFolder;
+        this.algorithms = algorithms;
+        this.manifestAlgorithms = manifestAlgorithms;
+        this.storageBackend = storageBackend;
+        Files.createDirectories(target.getParent());
+        tempFile = target.resolveSibling(target.getFileName().toString() + ".part");
+        tar = new TarWriter(new BufferedOutputStream(Files.newOutputStream(tempFile), BUFFER_SIZE));
+    }
+
+    /**
+     * Add the files referenced in the METS file. The files are stored in a folder named after their file group and are read from the storage
+     * backend.
+     *
+     * @param references the files from the METS file
+     * @param files the files to add, in the same order as the references
+     * @return the checksums of each file, in the same order as the files
+     * @throws IOException if a file is missing or cannot be read
+     */
+    public List<Map<String, String>> addPayloadFiles(List<MetsFileReference> references, List<Path> files) throws IOException {
+        List<Map<String, String>> checksums = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            checksums.add(addFile(references.get(i).getFileGroup() + "/" + file.getFileName().toString(), file, storageBackend));
+        }
+        return checksums;
+    }
+
+    /**
+     * Add a single file from the local file system to the payload of the bag, e.g. the METS file
+     *
+     * @param name path of the file, relative to the data folder
+     * @param file the file to add
+     * @return the checksums of the file
+     * @throws IOException if the file is missing or cannot be read
+     */
+    public Map<String, String> addFile(String name, Path file) throws IOException {
+        return addFile(name, file, LocalStorageBackend.INSTANCE);
+    }
+
+    private Map<String, String> addFile(String name, Path file, StorageBackend backend) throws IOException {
+        String path = "data/" + name;
+        Map<String, String> existing = payload.get(path);
+        if (existing != null) {
+            return existing;
+        }
+        FileIndex.Entry entry = backend.stat(file);
+        tar.putEntry(rootFolder + "/" + path, entry.getSize(), entry.getLastModified());
+        MultiDigest digest = MultiDigest.create(algorithms);
+        try (InputStream in = backend.newInputStream(file)) {
+            int length;
+            while ((length = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, length);
+                tar.write(buffer, 0, length);
+            }
+        }
+        tar.closeEntry();
+        Map<String, String> checksums = digest.finish();
+        payload.put(path, checksums);
+        numberOfFiles++;
+        return checksums;
+    }
+
+    /**
+     * Write the BagIt tag files, finish the archive and move it into its final location
+     *
+     * @throws IOException
+     */
+    public void commit() throws IOException {
+        Map<String, Map<String, String>> tagFiles = new LinkedHashMap<>();
+        tagFiles.put("bagit.txt", addTagFile("bagit.txt", "BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n"));
+        for (String algorithm : manifestAlgorithms) {
+            StringBuilder manifest = new StringBuilder();
+            for (Map.Entry<String, Map<String, String>> entry : payload.entrySet()) {
+                manifest.append(entry.getValue().get(algorithm)).append("  ").append(entry.getKey()).append('\n');
+            }
+            String name = EwigExportPlugin.getChecksumManifestName(algorithm);
+            tagFiles.put(name, addTagFile(name, manifest.toString()));
+        }
+        for (String algorithm : manifestAlgorithms) {
+            StringBuilder tagManifest = new StringBuilder();
+            for (Map.Entry<String, Map<String, String>> entry : tagFiles.entrySet()) {
+                tagManifest.append(entry.getValue().get(algorithm)).append("  ").append(entry.getKey()).append('\n');
+            }
+            addTagFile("tag" + EwigExportPlugin.getChecksumManifestName(algorithm), tagManifest.toString());
+        }
+        tar.close();
+        Files.move(tempFile, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        committed = true;
+        log.debug("Created submission package " + target + " with " + numberOfFiles + " files");
+    }
+
+    private Map<String, String> addTagFile(String name, String content) throws IOException {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        tar.putEntry(rootFolder + "/" + name, bytes.length, System.currentTimeMillis());
+        tar.write(bytes, 0, bytes.length);
+        tar.closeEntry();
+        MultiDigest digest = MultiDigest.create(algorithms);
+        digest.update(bytes, 0, bytes.length);
+        return digest.finish();
+    }
+
+    /**
+     * @return the size of the archive written so far
+     */
+    public long getBytesWritten() {
+        return tar.getBytesWritten();
+    }
+
+    public int getNumberOfFiles() {
+        return numberOfFiles;
+    }
+
+    /**
+     * Delete the incomplete archive, if the package was not committed
+     */
+    @Override
+    public void close() throws IOException {
+        if (!committed) {
+            try {
+                tar.close();
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+}
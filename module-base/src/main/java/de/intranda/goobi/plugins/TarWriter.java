@@ -0,0 +1,174 @@
+package de.intranda.goobi.plugins;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes a tar archive in the POSIX ustar format. Names longer than 100 bytes and files larger than 8 GiB get an additional pax header.
+ */
+public class TarWriter implements Closeable {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private static final long MAX_USTAR_SIZE = 077777777777L;
+
+    private final OutputStream out;
+
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    private long bytesWritten;
+
+    private long entrySize = -1;
+
+    private long entryBytesWritten;
+
+    private String entryName;
+
+    public TarWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Start a new file entry. The content must be written with {@link #write(byte[], int, int)}, followed by {@link #closeEntry()}.
+     *
+     * @param name path of the file inside of the archive
+     * @param size size of the file
+     * @param lastModified modification date in milliseconds
+     * @throws IOException
+     */
+    public void putEntry(String name, long size, long lastModified) throws IOException {
+        if (entrySize >= 0) {
+            throw new IOException("Entry " + entryName + " is not closed");
+        }
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100 || size > MAX_USTAR_SIZE) {
+            StringBuilder pax = new StringBuilder();
+            if (nameBytes.length > 100) {
+                pax.append(createPaxRecord("path", name));
+            }
+            if (size > MAX_USTAR_SIZE) {
+                pax.append(createPaxRecord("size", String.valueOf(size)));
+            }
+            byte[] paxBytes = pax.toString().getBytes(StandardCharsets.UTF_8);
+            writeHeader("PaxHeaders/" + shorten(name, 80), paxBytes.length, lastModified, (byte) 'x');
+            writeBytes(paxBytes, 0, paxBytes.length);
+            pad(paxBytes.length);
+        }
+        writeHeader(shorten(name, 100), size > MAX_USTAR_SIZE ? 0 : size, lastModified, (byte) '0');
+        entryName = name;
+        entrySize = size;
+        entryBytesWritten = 0;
+    }
+
+    /**
+     * Write content of the current entry
+     */
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (entryBytesWritten + length > entrySize) {
+            throw new IOException("Content of " + entryName + " is larger than " + entrySize + " bytes");
+        }
+        writeBytes(bytes, offset, length);
+        entryBytesWritten += length;
+    }
+
+    /**
+     * Finish the current entry
+     *
+     * @throws IOException if less content was written than announced, e.g. because the file was changed
+     */
+    public void closeEntry() throws IOException {
+        if (entryBytesWritten != entrySize) {
+            throw new IOException("Content of " + entryName + " has " + entryBytesWritten + " instead of " + entrySize + " bytes");
+        }
+        pad(entrySize);
+        entrySize = -1;
+    }
+
+    /**
+     * @return the size of the archive written so far
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Write the end of archive marker and close the stream
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            Arrays.fill(header, (byte) 0);
+            writeBytes(header, 0, BLOCK_SIZE);
+            writeBytes(header, 0, BLOCK_SIZE);
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeHeader(String name, long size, long lastModified, byte type) throws IOException {
+        Arrays.fill(header, (byte) 0);
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(nameBytes, 0, header, 0, Math.min(nameBytes.length, 100));
+        writeOctal(0644, 100, 8);
+        writeOctal(0, 108, 8);
+        writeOctal(0, 116, 8);
+        writeOctal(size, 124, 12);
+        writeOctal(lastModified / 1000, 136, 12);
+        header[156] = type;
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        // the checksum is calculated with blanks in the checksum field
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        writeOctal(checksum, 148, 7);
+        header[155] = ' ';
+        writeBytes(header, 0, BLOCK_SIZE);
+    }
+
+    // octal number with leading zeros, terminated by NUL
+    private void writeOctal(long value, int offset, int length) {
+        String octal = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int index = octal.length() - digits + i;
+            header[offset + i] = (byte) (index < 0 ? '0' : octal.charAt(index));
+        }
+        header[offset + digits] = 0;
+    }
+
+    private void pad(long size) throws IOException {
+        int remainder = (int) (size % BLOCK_SIZE);
+        if (remainder > 0) {
+            Arrays.fill(header, (byte) 0);
+            writeBytes(header, 0, BLOCK_SIZE - remainder);
+        }
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int length) throws IOException {
+        out.write(bytes, offset, length);
+        bytesWritten += length;
+    }
+
+    // a pax record has the form "<length> <key>=<value>\n", the length includes its own digits
+    private static String createPaxRecord(String key, String value) {
+        int length = key.getBytes(StandardCharsets.UTF_8).length + value.getBytes(StandardCharsets.UTF_8).length + 3;
+        int total = length + String.valueOf(length).length();
+        if (String.valueOf(total).length() > String.valueOf(length).length()) {
+            total++;
+        }
+        return total + " " + key + "=" + value + "\n";
+    }
+
+    private static String shorten(String name, int maxBytes) {
+        String result = name;
+        while (result.getBytes(StandardCharsets.UTF_8).length > maxBytes) {
+            result = result.substring(0, result.length() - 1);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,230 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+
+public class CallbackDispatcherTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private HttpServer server;
+
+    private String endpoint;
+
+    // bodies of all received requests, each is a batch of notifications
+    private final List<List<Map<String, Object>>> requests = new CopyOnWriteArrayList<>();
+
+    private volatile int status = 200;
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/callback", exchange -> {
+            try (InputStream in = exchange.getRequestBody()) {
+                requests.add(MAPPER.readValue(in, new TypeReference<List<Map<String, Object>>>() {
+                }));
+            }
+            exchange.sendResponseHeaders(status, -1);
+            exchange.close();
+        });
+        server.start();
+        endpoint = "http://127.0.0.1:" + server.getAddress().getPort() + "/callback";
+        folder = Files.createTempDirectory("lza-callback-queue");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.stop(0);
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private CallbackNotification createNotification(int processId) {
+        CallbackNotification notification = new CallbackNotification();
+        notification.setEndpoint(endpoint);
+        notification.setProcessId(processId);
+        notification.setStepId(processId * 10);
+        notification.setProcessTitle("process_" + processId);
+        notification.setCreated(System.currentTimeMillis());
+        return notification;
+    }
+
+    private CallbackDispatcher createDispatcher(CallbackQueue queue) {
+        return new CallbackDispatcher(queue, HttpClient.newHttpClient());
+    }
+
+    @Test
+    public void testDelivery() throws IOException {
+        CallbackQueue queue = new CallbackQueue(folder);
+        queue.add(createNotification(1));
+        try (CallbackDispatcher dispatcher = createDispatcher(queue)) {
+            assertEquals(1, dispatcher.dispatch());
+        }
+        assertTrue(queue.list().isEmpty());
+        assertEquals(1, requests.size());
+        assertEquals(1, requests.get(0).size());
+        // only the callback parameters of the submission manifest are sent
+        Map<String, Object> body = requests.get(0).get(0);
+        assertEquals(3, body.size());
+        assertEquals(endpoint, body.get("endpoint"));
+        assertEquals(1, body.get("processId"));
+        assertEquals(10, body.get("stepId"));
+    }
+
+    @Test
+    public void testBatches() throws IOException {
+        CallbackQueue queue = new CallbackQueue(folder);
+        int numberOfNotifications = 2 * CallbackDispatcher.BATCH_SIZE + 50;
+        for (int processId = 1; processId <= numberOfNotifications; processId++) {
+            CallbackNotification notification = createNotification(processId);
+            // unique creation dates keep the order of the queue
+            notification.setCreated(processId);
+            queue.add(notification);
+        }
+        try (CallbackDispatcher dispatcher = createDispatcher(queue)) {
+            assertEquals(numberOfNotifications, dispatcher.dispatch());
+        }
+        assertTrue(queue.list().isEmpty());
+        assertEquals(3, requests.size());
+        assertEquals(CallbackDispatcher.BATCH_SIZE, requests.get(0).size());
+        assertEquals(CallbackDispatcher.BATCH_SIZE, requests.get(1).size());
+        assertEquals(50, requests.get(2).size());
+        int processId = 1;
+        for (List<Map<String, Object>> batch : requests) {
+            for (Map<String, Object> body : batch) {
+                assertEquals(processId++, body.get("processId"));
+            }
+        }
+    }
+
+    @Test
+    public void testRetryWithBackoff() throws IOException {
+        CallbackQueue queue = new CallbackQueue(folder);
+        for (int processId = 1; processId <= CallbackDispatcher.BATCH_SIZE + 1; processId++) {
+            CallbackNotification notification = createNotification(processId);
+            notification.setCreated(processId);
+            queue.add(notification);
+        }
+        status = 503;
+        try (CallbackDispatcher dispatcher = createDispatcher(queue)) {
+            long start = System.currentTimeMillis();
+            assertEquals(0, dispatcher.dispatch());
+            // the second batch is not sent after the endpoint failed
+            assertEquals(1, requests.size());
+            List<Path> entries = queue.list();
+            assertEquals(CallbackDispatcher.BATCH_SIZE + 1, entries.size());
+            for (int i = 0; i < CallbackDispatcher.BATCH_SIZE; i++) {
+                CallbackNotification notification = queue.read(entries.get(i));
+                assertEquals(1, notification.getAttempts());
+                assertTrue(notification.getNextAttempt() >= start + 30_000);
+            }
+            assertEquals(0, queue.read(entries.get(CallbackDispatcher.BATCH_SIZE)).getAttempts());
+
+            // only the batch that was not sent is due
+            status = 200;
+            assertEquals(1, dispatcher.dispatch());
+            assertEquals(2, requests.size());
+            assertEquals(1, requests.get(1).size());
+
+            for (Path pending : queue.list()) {
+                CallbackNotification rescheduled = queue.read(pending);
+                rescheduled.setNextAttempt(0);
+                queue.update(pending, rescheduled);
+            }
+            assertEquals(CallbackDispatcher.BATCH_SIZE, dispatcher.dispatch());
+        }
+        assertTrue(queue.list().isEmpty());
+        assertEquals(3, requests.size());
+    }
+
+    @Test
+    public void testInterrupted() throws IOException {
+        CallbackQueue queue = new CallbackQueue(folder);
+        Path entry = queue.add(createNotification(1));
+        try (CallbackDispatcher dispatcher = createDispatcher(queue)) {
+            Thread.currentThread().interrupt();
+            try {
+                assertEquals(0, dispatcher.dispatch());
+            } finally {
+                assertTrue(Thread.interrupted());
+            }
+        }
+        // an interrupted delivery is not a failed attempt
+        CallbackNotification notification = queue.read(entry);
+        assertEquals(0, notification.getAttempts());
+        assertEquals(0, notification.getNextAttempt());
+    }
+
+    @Test
+    public void testBackoff() {
+        long first = CallbackDispatcher.getBackoff(1);
+        assertTrue(first >= 30_000 && first <= 36_000);
+        long second = CallbackDispatcher.getBackoff(2);
+        assertTrue(second >= 60_000 && second <= 72_000);
+        long last = CallbackDispatcher.getBackoff(CallbackDispatcher.MAX_ATTEMPTS);
+        assertTrue(last >= 3_600_000 && last <= 4_320_000);
+    }
+
+    @Test
+    public void testMoveToFailed() throws IOException {
+        CallbackQueue queue = new CallbackQueue(folder);
+        CallbackNotification notification = createNotification(1);
+        notification.setAttempts(CallbackDispatcher.MAX_ATTEMPTS - 1);
+        Path entry = queue.add(notification);
+        status = 500;
+        try (CallbackDispatcher dispatcher = createDispatcher(queue)) {
+            assertEquals(0, dispatcher.dispatch());
+        }
+        assertTrue(queue.list().isEmpty());
+        assertTrue(Files.exists(folder.resolve(CallbackQueue.FAILED_FOLDER).resolve(entry.getFileName())));
+    }
+
+    @Test
+    public void testReloadQueue() throws IOException {
+        CallbackQueue queue = new CallbackQueue(folder);
+        for (int processId = 1; processId <= 3; processId++) {
+            CallbackNotification notification = createNotification(processId);
+            notification.setCreated(processId);
+            queue.add(notification);
+        }
+        // an incomplete entry of a crashed write is ignored
+        try (OutputStream out = Files.newOutputStream(folder.resolve("incomplete.json.tmp"))) {
+            out.write('{');
+        }
+
+        // a new queue on the same folder, e.g. after a restart
+        CallbackQueue reloaded = new CallbackQueue(folder);
+        assertEquals(3, reloaded.list().size());
+        try (CallbackDispatcher dispatcher = createDispatcher(reloaded)) {
+            assertEquals(3, dispatcher.dispatch());
+        }
+        assertEquals(1, requests.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i + 1, requests.get(0).get(i).get("processId"));
+        }
+    }
+}
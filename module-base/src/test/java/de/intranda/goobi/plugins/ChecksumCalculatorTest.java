@@ -0,0 +1,128 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ChecksumCalculatorTest {
+
+    private static final List<String> ALGORITHMS = Arrays.asList("SHA-256", "SHA-512", "MD5", MultiDigest.CRC32C);
+
+    // known answers for the empty message
+    private static final Map<String, String> EMPTY = new LinkedHashMap<>();
+
+    // known answers for "abc"
+    private static final Map<String, String> ABC = new LinkedHashMap<>();
+
+    static {
+        EMPTY.put("SHA-256", "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855");
+        EMPTY.put("SHA-512", "cf83e1357eefb8bdf1542850d66d8007d620e4050b5715dc83f4a921d36ce9ce"
+                + "47d0d13c5d85f2b0ff8318d2877eec2f63b931bd47417a81a538327af927da3e");
+        EMPTY.put("MD5", "d41d8cd98f00b204e9800998ecf8427e");
+        EMPTY.put(MultiDigest.CRC32C, "00000000");
+        ABC.put("SHA-256", "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+        ABC.put("SHA-512", "ddaf35a193617abacc417349ae20413112e6fa4e89a97ea20a9eeee64b55d39a"
+                + "2192992a274fc1a836ba3c23a3feebbd454d4423643ce80e2a9ac94fa54ca49f");
+        ABC.put("MD5", "900150983cd24fb0d6963f7d28e17f72");
+        ABC.put(MultiDigest.CRC32C, "364b3fb7");
+    }
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("lza-checksums");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private Path createFile(String name, String content) throws IOException {
+        return Files.write(folder.resolve(name), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testShaString() {
+        assertEquals("", ChecksumCalculator.getShaString(new byte[0]));
+        assertEquals("00017f80ff", ChecksumCalculator.getShaString(new byte[] { 0, 1, 127, (byte) 128, (byte) 255 }));
+        // longer than the buffer of the thread
+        byte[] hash = new byte[100];
+        Arrays.fill(hash, (byte) 0xab);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < hash.length; i++) {
+            expected.append("ab");
+        }
+        assertEquals(expected.toString(), ChecksumCalculator.getShaString(hash));
+    }
+
+    @Test
+    public void testMultiDigest() throws IOException {
+        byte[] abc = "abc".getBytes(StandardCharsets.US_ASCII);
+        MultiDigest digest = MultiDigest.create(ALGORITHMS);
+        digest.update(abc, 0, abc.length);
+        assertEquals(ABC, digest.finish());
+
+        // the same instances, updated from a buffer in two parts
+        digest = MultiDigest.create(ALGORITHMS);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(3);
+        buffer.put(abc).flip();
+        buffer.limit(1);
+        digest.update(buffer);
+        assertEquals(1, buffer.position());
+        buffer.limit(3);
+        digest.update(buffer);
+        assertEquals(3, buffer.position());
+        assertEquals(ABC, digest.finish());
+
+        assertEquals(EMPTY, MultiDigest.create(ALGORITHMS).finish());
+    }
+
+    @Test
+    public void testFilesInARow() throws IOException {
+        Path abc = createFile("abc.txt", "abc");
+        Path empty = createFile("empty.txt", "");
+
+        // the instances of this thread are reset between the files
+        assertEquals(ABC, ChecksumCalculator.calculateChecksums(abc, ALGORITHMS));
+        assertEquals(EMPTY, ChecksumCalculator.calculateChecksums(empty, ALGORITHMS));
+        assertEquals(ABC, ChecksumCalculator.calculateChecksums(abc, ALGORITHMS));
+        assertEquals(ABC.get("SHA-256"), ChecksumCalculator.calculateChecksum(abc));
+
+        // an aborted calculation does not change the next one
+        MultiDigest aborted = MultiDigest.create(ALGORITHMS);
+        aborted.update(new byte[] { 1, 2, 3 }, 0, 3);
+        assertEquals(EMPTY, ChecksumCalculator.calculateChecksums(empty, ALGORITHMS));
+
+        assertEquals(ABC, ChecksumCalculator.calculateChecksums(new ByteArrayInputStream("abc".getBytes(StandardCharsets.US_ASCII)), ALGORITHMS));
+        assertEquals(EMPTY, ChecksumCalculator.calculateChecksums(new ByteArrayInputStream(new byte[0]), ALGORITHMS));
+    }
+
+    @Test
+    public void testCopyWithChecksums() throws IOException {
+        Path abc = createFile("abc.txt", "abc");
+        Path copy = folder.resolve("copy.txt");
+        assertEquals(ABC, ChecksumCalculator.copyWithChecksums(abc, copy, ALGORITHMS));
+        assertEquals("abc", new String(Files.readAllBytes(copy), StandardCharsets.US_ASCII));
+        assertEquals(EMPTY, ChecksumCalculator.copyWithChecksums(createFile("empty.txt", ""), copy, ALGORITHMS));
+        assertEquals(0, Files.size(copy));
+    }
+}
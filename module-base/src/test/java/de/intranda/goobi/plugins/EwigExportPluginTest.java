@@ -0,0 +1,59 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EwigExportPluginTest {
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("lza-export");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    @Test
+    public void testCompressedCopy() throws IOException {
+        Path metsFile = folder.resolve("1234.xml");
+        StringBuilder mets = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<mets:mets xmlns:mets=\"http://www.loc.gov/METS/\">\n");
+        // larger than the buffer of the gzip stream
+        for (int page = 1; page <= 5000; page++) {
+            mets.append("  <mets:div ID=\"PHYS_").append(page).append("\" ORDER=\"").append(page).append("\" TYPE=\"page\" LABEL=\"Seite ü\"/>\n");
+        }
+        mets.append("</mets:mets>\n");
+        Files.write(metsFile, mets.toString().getBytes(StandardCharsets.UTF_8));
+
+        Path compressedFile = folder.resolve("1234.xml.gz");
+        EwigExportPlugin.writeCompressedCopy(new AtomicFileWriter(AtomicFileWriter.FsyncPolicy.NONE), metsFile, compressedFile);
+
+        assertTrue(Files.size(compressedFile) < Files.size(metsFile));
+        assertFalse(Files.exists(AtomicFileWriter.getTempFile(compressedFile)));
+        ByteArrayOutputStream uncompressed = new ByteArrayOutputStream();
+        try (InputStream in = new GZIPInputStream(Files.newInputStream(compressedFile))) {
+            in.transferTo(uncompressed);
+        }
+        assertArrayEquals(Files.readAllBytes(metsFile), uncompressed.toByteArray());
+    }
+}
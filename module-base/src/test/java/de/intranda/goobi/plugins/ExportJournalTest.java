@@ -0,0 +1,153 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExportJournalTest {
+
+    private static final List<String> ALGORITHMS = Arrays.asList("SHA-256", "MD5");
+
+    private static final String FINGERPRINT = "meta.xml:1234:1700000000000:SHA-256,MD5";
+
+    private static final Path FIRST_FILE = Paths.get("/opt/digiverso/goobi/metadata/1/images/master/00000001.tif");
+
+    private static final Path SECOND_FILE = Paths.get("/opt/digiverso/goobi/metadata/1/images/master/00000002.tif");
+
+    private static final Path THIRD_FILE = Paths.get("/opt/digiverso/goobi/metadata/1/images/master/00000003.tif");
+
+    private Path folder;
+
+    private Path journalFile;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("lza-journal");
+        journalFile = folder.resolve(ExportJournal.JOURNAL_FILE_NAME);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static Map<String, String> createChecksums(int value) {
+        Map<String, String> checksums = new LinkedHashMap<>();
+        checksums.put("SHA-256", "sha256_" + value);
+        checksums.put("MD5", "md5_" + value);
+        return checksums;
+    }
+
+    /**
+     * Cut the given number of bytes from the end of a file, like a crash while the last line was written
+     */
+    private static void truncate(Path file, int bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - bytes);
+        }
+    }
+
+    @Test
+    public void testResume() throws IOException {
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT)) {
+            assertFalse(journal.isResumed());
+            journal.addFile(FIRST_FILE, 100, 1000, createChecksums(1));
+            journal.addStage(ExportStage.METS_FILE);
+        }
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT)) {
+            assertTrue(journal.isResumed());
+            assertTrue(journal.isCompleted(ExportStage.METS_FILE));
+            assertFalse(journal.isCompleted(ExportStage.XML_LOG));
+            assertEquals(createChecksums(1), journal.getChecksums(FIRST_FILE, 100, 1000, ALGORITHMS));
+            // changed files and missing algorithms are hashed again
+            assertNull(journal.getChecksums(FIRST_FILE, 101, 1000, ALGORITHMS));
+            assertNull(journal.getChecksums(FIRST_FILE, 100, 1001, ALGORITHMS));
+            assertNull(journal.getChecksums(FIRST_FILE, 100, 1000, Arrays.asList("SHA-256", "SHA-512")));
+        }
+
+        // another state of the process starts from the beginning
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT + "_changed")) {
+            assertFalse(journal.isResumed());
+            assertEquals(0, journal.getNumberOfFiles());
+        }
+    }
+
+    @Test
+    public void testTruncatedLastLine() throws IOException {
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT)) {
+            journal.addStage(ExportStage.METS_FILE);
+            journal.addFile(FIRST_FILE, 100, 1000, createChecksums(1));
+            journal.addFile(SECOND_FILE, 200, 2000, createChecksums(2));
+        }
+        // the path of the second file is incomplete
+        truncate(journalFile, 8);
+
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT)) {
+            assertTrue(journal.isResumed());
+            assertTrue(journal.isCompleted(ExportStage.METS_FILE));
+            assertEquals(1, journal.getNumberOfFiles());
+            assertEquals(createChecksums(1), journal.getChecksums(FIRST_FILE, 100, 1000, ALGORITHMS));
+            assertNull(journal.getChecksums(SECOND_FILE, 200, 2000, ALGORITHMS));
+            // the new line must not be appended to the incomplete one
+            journal.addFile(THIRD_FILE, 300, 3000, createChecksums(3));
+        }
+
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT)) {
+            assertEquals(2, journal.getNumberOfFiles());
+            assertEquals(createChecksums(1), journal.getChecksums(FIRST_FILE, 100, 1000, ALGORITHMS));
+            assertNull(journal.getChecksums(SECOND_FILE, 200, 2000, ALGORITHMS));
+            assertEquals(createChecksums(3), journal.getChecksums(THIRD_FILE, 300, 3000, ALGORITHMS));
+        }
+    }
+
+    @Test
+    public void testTruncatedStartLine() throws IOException {
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT)) {
+            journal.addFile(FIRST_FILE, 100, 1000, createChecksums(1));
+        }
+        Files.write(journalFile, ("START\t" + FINGERPRINT.substring(0, 10)).getBytes(StandardCharsets.UTF_8));
+        try (ExportJournal journal = ExportJournal.open(journalFile, FINGERPRINT)) {
+            assertFalse(journal.isResumed());
+        }
+        assertEquals("START\t" + FINGERPRINT + "\n", new String(Files.readAllBytes(journalFile), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStateWithTruncatedLastLine() throws IOException {
+        Path stateFile = folder.resolve(ExportState.STATE_FILE_NAME);
+        ExportState state = new ExportState();
+        state.setMetsChecksumType("SHA-256");
+        state.setMetsChecksum("mets");
+        state.putFile(FIRST_FILE, new ExportState.FileState(100, 1000, createChecksums(1)));
+        state.putFile(SECOND_FILE, new ExportState.FileState(200, 2000, createChecksums(2)));
+        state.save(stateFile);
+        truncate(stateFile, 3);
+
+        ExportState loaded = ExportState.load(stateFile);
+        assertEquals("mets", loaded.getMetsChecksum());
+        assertTrue(loaded.getFile(FIRST_FILE).matches(100, 1000, ALGORITHMS));
+        assertEquals(createChecksums(1), loaded.getFile(FIRST_FILE).getChecksums());
+        assertNull(loaded.getFile(SECOND_FILE));
+    }
+}
@@ -0,0 +1,322 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.NodeList;
+
+public class MetsPostProcessorTest {
+
+    private static final Namespace METS = Namespace.getNamespace("mets", MetsPostProcessor.METS_NAMESPACE);
+
+    private static final Namespace XLINK = Namespace.getNamespace("xlink", MetsPostProcessor.XLINK_NAMESPACE);
+
+    private static final String LOG_HREF = "submissionDocumentation/1234_log.xml";
+
+    private static final String LOG_CHECKSUM = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    private Path folder;
+
+    private Path metsFile;
+
+    private Map<String, String> checksums;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("lza-mets");
+        metsFile = folder.resolve("1234_mets.xml");
+        checksums = new HashMap<>();
+        for (int page = 1; page <= 2; page++) {
+            checksums.put("FILE_000" + page, "0000" + page);
+            checksums.put("FILE_000" + page + "_ALTO", "1111" + page);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(metsFile);
+        Files.deleteIfExists(folder);
+    }
+
+    /**
+     * Create a METS file in the layout of UGH, with a PRESENTATION, a MASTER and an ALTO file group
+     */
+    private void createMetsFile(String prefix) throws IOException {
+        String m = prefix + ":";
+        StringBuilder mets = new StringBuilder();
+        mets.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        mets.append("<" + m + "mets xmlns:" + prefix + "=\"" + MetsPostProcessor.METS_NAMESPACE + "\" xmlns:mods=\"http://www.loc.gov/mods/v3\""
+                + " xmlns:xlink=\"" + MetsPostProcessor.XLINK_NAMESPACE + "\">\n");
+        mets.append("  <" + m + "dmdSec ID=\"DMDLOG_0000\">\n");
+        mets.append("    <" + m + "mdWrap MDTYPE=\"MODS\">\n");
+        mets.append("      <" + m + "xmlData>\n");
+        mets.append("        <mods:mods>\n");
+        mets.append("          <mods:titleInfo>\n");
+        mets.append("            <mods:title>Über &amp; unter der Erde</mods:title>\n");
+        mets.append("            <mods:subTitle>   mit Einrückung am Anfang</mods:subTitle>\n");
+        mets.append("          </mods:titleInfo>\n");
+        mets.append("          <mods:note>  </mods:note>\n");
+        mets.append("          <mods:abstract>Eine <mods:span>kurze</mods:span> <mods:span>und</mods:span>\n  <mods:span>gemischte</mods:span> Beschreibung"
+                + "</mods:abstract>\n");
+        mets.append("          <mods:physicalDescription><mods:extent>\n  12 Seiten\n</mods:extent></mods:physicalDescription>\n");
+        mets.append("        </mods:mods>\n");
+        mets.append("      </" + m + "xmlData>\n");
+        mets.append("    </" + m + "mdWrap>\n");
+        mets.append("  </" + m + "dmdSec>\n");
+        mets.append("  <" + m + "fileSec>\n");
+        appendFileGroup(mets, m, "PRESENTATION", "", "https://example.com/images/", ".jpg", "image/jpeg");
+        appendFileGroup(mets, m, "MASTER", "", "file:///opt/digiverso/goobi/metadata/1/images/master/", ".tif", "image/tiff");
+        appendFileGroup(mets, m, "ALTO", "_ALTO", "file:///opt/digiverso/goobi/metadata/1/ocr/alto/", ".xml", "text/xml");
+        mets.append("  </" + m + "fileSec>\n");
+        mets.append("  <" + m + "structMap TYPE=\"LOGICAL\">\n");
+        mets.append("    <" + m + "div DMDID=\"DMDLOG_0000\" ID=\"LOG_0000\" TYPE=\"Monograph\">\n");
+        mets.append("      <" + m + "div ID=\"LOG_0001\" TYPE=\"Chapter\"/>\n");
+        mets.append("    </" + m + "div>\n");
+        mets.append("  </" + m + "structMap>\n");
+        mets.append("  <" + m + "structMap TYPE=\"PHYSICAL\">\n");
+        mets.append("    <" + m + "div ID=\"PHYS_0000\" TYPE=\"physSequence\">\n");
+        for (int page = 1; page <= 2; page++) {
+            mets.append("      <" + m + "div ID=\"PHYS_000" + page + "\" ORDER=\"" + page + "\" TYPE=\"page\">\n");
+            mets.append("        <" + m + "fptr FILEID=\"FILE_000" + page + "\"/>\n");
+            mets.append("      </" + m + "div>\n");
+        }
+        mets.append("    </" + m + "div>\n");
+        mets.append("  </" + m + "structMap>\n");
+        mets.append("</" + m + "mets>\n");
+        Files.write(metsFile, mets.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void appendFileGroup(StringBuilder mets, String m, String use, String idSuffix, String location, String extension, String mimeType) {
+        mets.append("    <" + m + "fileGrp USE=\"" + use + "\">\n");
+        for (int page = 1; page <= 2; page++) {
+            mets.append("      <" + m + "file ID=\"FILE_000" + page + idSuffix + "\" MIMETYPE=\"" + mimeType + "\">\n");
+            mets.append("        <" + m + "FLocat LOCTYPE=\"URL\" xlink:href=\"" + location + "0000000" + page + extension + "\"/>\n");
+            mets.append("      </" + m + "file>\n");
+        }
+        mets.append("    </" + m + "fileGrp>\n");
+    }
+
+    private byte[] process() throws IOException, XMLStreamException {
+        return process(false);
+    }
+
+    private byte[] process(boolean compact) throws IOException, XMLStreamException {
+        MetsPostProcessor postProcessor = new MetsPostProcessor();
+        postProcessor.setLogFile(LOG_HREF, LOG_CHECKSUM);
+        postProcessor.setCompact(compact);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        postProcessor.process(metsFile, out, checksums, ChecksumCalculator.CHECKSUM_TYPE);
+        return out.toByteArray();
+    }
+
+    private org.w3c.dom.Document parse(byte[] xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+
+    private static org.w3c.dom.Element getChild(org.w3c.dom.Element parent, String localName, int index) {
+        int counter = 0;
+        for (org.w3c.dom.Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof org.w3c.dom.Element && MetsPostProcessor.METS_NAMESPACE.equals(node.getNamespaceURI())
+                    && localName.equals(node.getLocalName()) && counter++ == index) {
+                return (org.w3c.dom.Element) node;
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void testListFiles() throws Exception {
+        createMetsFile("mets");
+        List<MetsFileReference> files = MetsPostProcessor.listFiles(metsFile);
+        assertEquals(4, files.size());
+        assertEquals("MASTER", files.get(0).getFileGroup());
+        assertEquals("FILE_0001", files.get(0).getId());
+        assertEquals("file:///opt/digiverso/goobi/metadata/1/images/master/00000001.tif", files.get(0).getHref());
+        assertEquals("ALTO", files.get(3).getFileGroup());
+        assertEquals("FILE_0002_ALTO", files.get(3).getId());
+    }
+
+    @Test
+    public void testChecksumsAndLogFile() throws Exception {
+        createMetsFile("mets");
+        org.w3c.dom.Document document = parse(process());
+
+        NodeList files = document.getElementsByTagNameNS(MetsPostProcessor.METS_NAMESPACE, "file");
+        assertEquals(7, files.getLength());
+        for (int i = 0; i < files.getLength(); i++) {
+            org.w3c.dom.Element file = (org.w3c.dom.Element) files.item(i);
+            String use = ((org.w3c.dom.Element) file.getParentNode()).getAttribute("USE");
+            String id = file.getAttribute("ID");
+            if ("PRESENTATION".equals(use)) {
+                assertFalse(file.hasAttribute("CHECKSUM"));
+                assertFalse(file.hasAttribute("CHECKSUMTYPE"));
+            } else if ("LOG".equals(use)) {
+                assertEquals("LOGFILE_0001", id);
+                assertEquals(LOG_CHECKSUM, file.getAttribute("CHECKSUM"));
+                assertEquals(ChecksumCalculator.CHECKSUM_TYPE, file.getAttribute("CHECKSUMTYPE"));
+            } else {
+                assertEquals(checksums.get(id), file.getAttribute("CHECKSUM"));
+                assertEquals(ChecksumCalculator.CHECKSUM_TYPE, file.getAttribute("CHECKSUMTYPE"));
+            }
+        }
+
+        // one pointer to the log file, as first child of the first div in the first structMap
+        NodeList pointers = document.getElementsByTagNameNS(MetsPostProcessor.METS_NAMESPACE, "fptr");
+        int logPointers = 0;
+        for (int i = 0; i < pointers.getLength(); i++) {
+            if ("LOGFILE_0001".equals(((org.w3c.dom.Element) pointers.item(i)).getAttribute("FILEID"))) {
+                logPointers++;
+            }
+        }
+        assertEquals(1, logPointers);
+        org.w3c.dom.Element mainDiv = getChild(getChild(document.getDocumentElement(), "structMap", 0), "div", 0);
+        org.w3c.dom.Element pointer = getChild(mainDiv, "fptr", 0);
+        assertEquals("LOGFILE_0001", pointer.getAttribute("FILEID"));
+        assertEquals(pointer, mainDiv.getFirstChild());
+
+        // the log file group is the last element of the fileSec
+        org.w3c.dom.Element fileSec = getChild(document.getDocumentElement(), "fileSec", 0);
+        org.w3c.dom.Element logGroup = getChild(fileSec, "fileGrp", 3);
+        assertEquals("LOG", logGroup.getAttribute("USE"));
+        assertEquals(logGroup, fileSec.getLastChild());
+        org.w3c.dom.Element flocat = getChild(getChild(logGroup, "file", 0), "FLocat", 0);
+        assertEquals(LOG_HREF, flocat.getAttributeNS(MetsPostProcessor.XLINK_NAMESPACE, "href"));
+        assertNull(getChild(fileSec, "fileGrp", 4));
+    }
+
+    @Test
+    public void testPrefixOfSourceDocument() throws Exception {
+        createMetsFile("m");
+        String mets = new String(process(), StandardCharsets.UTF_8);
+        assertTrue(mets.contains("<m:div DMDID=\"DMDLOG_0000\" ID=\"LOG_0000\" TYPE=\"Monograph\"><m:fptr FILEID=\"LOGFILE_0001\"></m:fptr>"));
+        assertTrue(mets.contains("<m:fileGrp USE=\"LOG\"><m:file ID=\"LOGFILE_0001\""));
+        assertTrue(mets.contains("<m:FLocat LOCTYPE=\"URL\" xlink:href=\"" + LOG_HREF + "\"></m:FLocat></m:file></m:fileGrp></m:fileSec>"));
+        assertFalse(mets.contains("mets:"));
+    }
+
+    @Test
+    public void testCompactFormat() throws Exception {
+        createMetsFile("mets");
+        byte[] pretty = process(false);
+        byte[] compact = process(true);
+        assertTrue(compact.length < pretty.length);
+        String compactMets = new String(compact, StandardCharsets.UTF_8);
+        assertFalse(compactMets.substring(compactMets.indexOf("<mets:mets")).contains("\n    <"));
+
+        List<String> prettyValues = getMetadataValues(parse(pretty));
+        List<String> compactValues = getMetadataValues(parse(compact));
+        assertEquals(prettyValues, compactValues);
+        assertTrue(compactValues.contains("Über & unter der Erde"));
+        assertTrue(compactValues.contains("   mit Einrückung am Anfang"));
+        assertTrue(compactValues.contains("  "));
+        assertTrue(compactValues.contains("Eine kurze und\n  gemischte Beschreibung"));
+        assertTrue(compactValues.contains("\n  12 Seiten\n"));
+
+        // the structure is the same apart from the indentation
+        assertEquals(parse(pretty).getElementsByTagName("*").getLength(), parse(compact).getElementsByTagName("*").getLength());
+    }
+
+    /**
+     * Get the text of all MODS elements with text content
+     */
+    private static List<String> getMetadataValues(org.w3c.dom.Document document) {
+        List<String> values = new ArrayList<>();
+        NodeList elements = document.getElementsByTagNameNS("http://www.loc.gov/mods/v3", "*");
+        for (int i = 0; i < elements.getLength(); i++) {
+            org.w3c.dom.Element element = (org.w3c.dom.Element) elements.item(i);
+            if (hasText(element)) {
+                values.add(element.getTextContent());
+            }
+        }
+        return values;
+    }
+
+    private static boolean hasText(org.w3c.dom.Element element) {
+        boolean hasElements = false;
+        for (org.w3c.dom.Node node = element.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof org.w3c.dom.Text && !node.getNodeValue().trim().isEmpty()) {
+                return true;
+            }
+            hasElements |= node instanceof org.w3c.dom.Element;
+        }
+        return !hasElements;
+    }
+
+    /**
+     * The former implementation parsed the METS file with JDOM, added the checksums and the log file and wrote it with the pretty format. Apart
+     * from the indentation, the streamed result has to be the same document.
+     */
+    @Test
+    public void testSameResultAsJdom() throws Exception {
+        createMetsFile("mets");
+        byte[] expected = processWithJdom();
+        Document streamed = new SAXBuilder().build(new ByteArrayInputStream(process()));
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        new XMLOutputter(Format.getPrettyFormat()).output(streamed, actual);
+        assertEquals(new String(expected, StandardCharsets.UTF_8), new String(actual.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    private byte[] processWithJdom() throws IOException, JDOMException {
+        Document metsDoc = new SAXBuilder().build(metsFile.toFile());
+        Element fileSec = metsDoc.getRootElement().getChild("fileSec", METS);
+        for (Element fileGrp : fileSec.getChildren("fileGrp", METS)) {
+            String fileGroupName = fileGrp.getAttributeValue("USE");
+            if ("MASTER".equals(fileGroupName) || "ALTO".equals(fileGroupName)) {
+                for (Element file : fileGrp.getChildren("file", METS)) {
+                    file.setAttribute("CHECKSUM", checksums.get(file.getAttributeValue("ID")));
+                    file.setAttribute("CHECKSUMTYPE", ChecksumCalculator.CHECKSUM_TYPE);
+                }
+            }
+        }
+        Element fileGroup = new Element("fileGrp", METS);
+        fileGroup.setAttribute("USE", "LOG");
+        Element fileElement = new Element("file", METS);
+        fileElement.setAttribute("ID", "LOGFILE_0001");
+        fileElement.setAttribute("MIMETYPE", "application/xml");
+        fileGroup.addContent(fileElement);
+        Element flocat = new Element("FLocat", METS);
+        flocat.setAttribute("LOCTYPE", "URL");
+        flocat.setAttribute("href", LOG_HREF, XLINK);
+        fileElement.addContent(flocat);
+        fileSec.addContent(fileGroup);
+
+        Element mainDocstructElement = metsDoc.getRootElement().getChildren("structMap", METS).get(0).getChild("div", METS);
+        Element fptr = new Element("fptr", METS);
+        fptr.setAttribute("FILEID", "LOGFILE_0001");
+        mainDocstructElement.addContent(0, fptr);
+        fileElement.setAttribute("CHECKSUM", LOG_CHECKSUM);
+        fileElement.setAttribute("CHECKSUMTYPE", ChecksumCalculator.CHECKSUM_TYPE);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new XMLOutputter(Format.getPrettyFormat()).output(metsDoc, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,328 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class S3StorageBackendTest {
+
+    private static final String BUCKET = "goobi";
+
+    private static final long LAST_MODIFIED = 1_700_000_000_000L;
+
+    private static final int PART_SIZE = 1000;
+
+    private static final Path PATH_PREFIX = Paths.get("/opt/digiverso/goobi/metadata");
+
+    private HttpServer server;
+
+    // content of the bucket, by key
+    private final Map<String, byte[]> objects = Collections.synchronizedMap(new TreeMap<>());
+
+    private final AtomicInteger headRequests = new AtomicInteger();
+
+    private final AtomicInteger rangeRequests = new AtomicInteger();
+
+    private S3StorageBackend backend;
+
+    private Path tempFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.start();
+        AmazonS3 client = AmazonS3ClientBuilder.standard()
+                .withPathStyleAccessEnabled(true)
+                .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration("http://127.0.0.1:" + server.getAddress().getPort(), "us-east-1"))
+                .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("test", "test")))
+                .build();
+        backend = new S3StorageBackend(client, BUCKET, PATH_PREFIX, "lza", PART_SIZE, 3);
+        tempFolder = Files.createTempDirectory("lza-s3-test");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        backend.close();
+        server.stop(0);
+        try (Stream<Path> files = Files.walk(tempFolder)) {
+            files.sorted(Collections.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    // minimal S3 API: list objects v2, head, get with range, server side copy
+    private void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String key = path.length() > BUCKET.length() + 2 ? path.substring(BUCKET.length() + 2) : "";
+        String method = exchange.getRequestMethod();
+        try {
+            if ("GET".equals(method) && key.isEmpty()) {
+                list(exchange);
+            } else if ("PUT".equals(method) && exchange.getRequestHeaders().getFirst("x-amz-copy-source") != null) {
+                String source = URLDecoder.decode(exchange.getRequestHeaders().getFirst("x-amz-copy-source"), "UTF-8");
+                byte[] content = objects.get(source.substring(source.indexOf('/', 1) + 1));
+                if (content == null) {
+                    sendNotFound(exchange);
+                    return;
+                }
+                objects.put(key, content);
+                send(exchange, 200, ("<CopyObjectResult><LastModified>" + formatIso(LAST_MODIFIED) + "</LastModified><ETag>\"" + md5(content)
+                        + "\"</ETag></CopyObjectResult>").getBytes(StandardCharsets.UTF_8));
+            } else if ("HEAD".equals(method) || "GET".equals(method)) {
+                byte[] content = objects.get(key);
+                if (content == null) {
+                    sendNotFound(exchange);
+                    return;
+                }
+                exchange.getResponseHeaders().add("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(Instant.ofEpochMilli(LAST_MODIFIED)
+                        .atZone(ZoneOffset.UTC)));
+                exchange.getResponseHeaders().add("ETag", "\"" + md5(content) + "\"");
+                if ("HEAD".equals(method)) {
+                    headRequests.incrementAndGet();
+                    exchange.getResponseHeaders().add("Content-Length", String.valueOf(content.length));
+                    exchange.sendResponseHeaders(200, -1);
+                    exchange.close();
+                    return;
+                }
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                if (range == null) {
+                    send(exchange, 200, content);
+                    return;
+                }
+                rangeRequests.incrementAndGet();
+                String[] bounds = range.substring("bytes=".length()).split("-");
+                int start = Integer.parseInt(bounds[0]);
+                int end = Math.min(content.length - 1, Integer.parseInt(bounds[1]));
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+                send(exchange, 206, Arrays.copyOfRange(content, start, end + 1));
+            } else {
+                send(exchange, 405, new byte[0]);
+            }
+        } catch (RuntimeException e) {
+            send(exchange, 500, new byte[0]);
+        }
+    }
+
+    private void list(HttpExchange exchange) throws IOException {
+        String prefix = "";
+        for (String parameter : exchange.getRequestURI().getRawQuery().split("&")) {
+            if (parameter.startsWith("prefix=")) {
+                prefix = URLDecoder.decode(parameter.substring("prefix=".length()), "UTF-8");
+            }
+        }
+        StringBuilder xml = new StringBuilder("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Name>").append(BUCKET)
+                .append("</Name><Prefix>")
+                .append(prefix)
+                .append("</Prefix><Delimiter>/</Delimiter><MaxKeys>1000</MaxKeys><IsTruncated>false</IsTruncated>");
+        synchronized (objects) {
+            for (Map.Entry<String, byte[]> object : objects.entrySet()) {
+                // only the direct children of the prefix, like a request with the delimiter /
+                if (object.getKey().startsWith(prefix) && object.getKey().indexOf('/', prefix.length()) < 0) {
+                    xml.append("<Contents><Key>")
+                            .append(object.getKey())
+                            .append("</Key><LastModified>")
+                            .append(formatIso(LAST_MODIFIED))
+                            .append("</LastModified><ETag>\"")
+                            .append(md5(object.getValue()))
+                            .append("\"</ETag><Size>")
+                            .append(object.getValue().length)
+                            .append("</Size><StorageClass>STANDARD</StorageClass></Contents>");
+                }
+            }
+        }
+        xml.append("</ListBucketResult>");
+        send(exchange, 200, xml.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void sendNotFound(HttpExchange exchange) throws IOException {
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+            return;
+        }
+        send(exchange, 404, "<Error><Code>NoSuchKey</Code><Message>The specified key does not exist.</Message></Error>"
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String formatIso(long millis) {
+        return DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC).format(Instant.ofEpochMilli(millis));
+    }
+
+    private static String md5(byte[] content) {
+        return digest("MD5", content);
+    }
+
+    private static String digest(String algorithm, byte[] content) {
+        try {
+            return ChecksumCalculator.getShaString(MessageDigest.getInstance(algorithm).digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        return content;
+    }
+
+    @Test
+    public void testGetKey() {
+        assertEquals("lza/12/images/master_media/00000001.tif", backend.getKey(PATH_PREFIX.resolve("12/images/master_media/00000001.tif")));
+        assertTrue(backend.contains(PATH_PREFIX.resolve("12/ocr/alto")));
+        assertFalse(backend.contains(Paths.get("/tmp/12/ocr/alto")));
+    }
+
+    @Test
+    public void testList() throws IOException {
+        objects.put("lza/12/images/master_media/00000001.tif", createContent(10));
+        objects.put("lza/12/images/master_media/00000002.tif", createContent(20));
+        objects.put("lza/12/images/master_media/00000002.txt", createContent(5));
+        objects.put("lza/12/images/master_media/thumbs/00000001.tif", createContent(5));
+        objects.put("lza/13/images/master_media/00000001.tif", createContent(5));
+
+        List<FileIndex.Entry> entries = backend.list(PATH_PREFIX.resolve("12/images/master_media"), file -> file.toString().endsWith(".tif"));
+        assertEquals(2, entries.size());
+        assertEquals(PATH_PREFIX.resolve("12/images/master_media/00000001.tif"), entries.get(0).getPath());
+        assertEquals(10, entries.get(0).getSize());
+        assertEquals(LAST_MODIFIED, entries.get(0).getLastModified());
+        assertEquals(20, entries.get(1).getSize());
+
+        assertTrue(backend.list(PATH_PREFIX.resolve("12/ocr/alto"), null).isEmpty());
+    }
+
+    @Test
+    public void testStat() throws IOException {
+        objects.put("lza/12/images/master_media/00000001.tif", createContent(10));
+        FileIndex.Entry entry = backend.stat(PATH_PREFIX.resolve("12/images/master_media/00000001.tif"));
+        assertEquals(10, entry.getSize());
+        assertEquals(LAST_MODIFIED, entry.getLastModified());
+        try {
+            backend.stat(PATH_PREFIX.resolve("12/images/master_media/00000002.tif"));
+            fail("missing object was found");
+        } catch (NoSuchFileException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testPathOutsideOfPrefix() throws IOException {
+        Path localFile = Files.write(tempFolder.resolve("00000001.tif"), createContent(10));
+        try {
+            backend.stat(localFile);
+            fail("local file was read");
+        } catch (IOException e) {
+            assertFalse(e instanceof NoSuchFileException);
+        }
+        try {
+            backend.calculateChecksums(new FileIndex.Entry(localFile, 10, LAST_MODIFIED), Collections.singletonList("SHA-256"));
+            fail("local file was hashed");
+        } catch (IOException e) {
+            // expected
+        }
+        try {
+            backend.list(tempFolder, null);
+            fail("local folder was listed");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCalculateChecksums() throws IOException {
+        byte[] content = createContent(10 * PART_SIZE + 123);
+        objects.put("lza/12/images/master_media/00000001.tif", content);
+        FileIndex.Entry entry = backend.list(PATH_PREFIX.resolve("12/images/master_media"), null).get(0);
+
+        Map<String, String> checksums = backend.calculateChecksums(entry, Arrays.asList("SHA-256", "MD5"));
+        assertEquals(digest("SHA-256", content), checksums.get("SHA-256"));
+        assertEquals(md5(content), checksums.get("MD5"));
+        assertEquals(11, rangeRequests.get());
+        // the size is taken from the listing
+        assertEquals(0, headRequests.get());
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        byte[] content = createContent(3 * PART_SIZE + 1);
+        objects.put("lza/12/images/master_media/00000001.tif", content);
+        FileIndex.Entry entry = backend.stat(PATH_PREFIX.resolve("12/images/master_media/00000001.tif"));
+
+        Path target = tempFolder.resolve("00000001.tif");
+        backend.copy(entry, target);
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(LAST_MODIFIED, Files.getLastModifiedTime(target).toMillis());
+    }
+
+    @Test
+    public void testCopyInBucket() throws IOException {
+        byte[] content = createContent(100);
+        objects.put("lza/12/images/master_media/00000001.tif", content);
+        FileIndex.Entry entry = backend.stat(PATH_PREFIX.resolve("12/images/master_media/00000001.tif"));
+
+        backend.copy(entry, PATH_PREFIX.resolve("12/export/00000001.tif"));
+        assertArrayEquals(content, objects.get("lza/12/export/00000001.tif"));
+        assertEquals(0, rangeRequests.get());
+    }
+
+    @Test
+    public void testNewInputStream() throws IOException {
+        byte[] content = createContent(2 * PART_SIZE);
+        objects.put("lza/12/images/master_media/00000001.tif", content);
+        try (InputStream in = backend.newInputStream(PATH_PREFIX.resolve("12/images/master_media/00000001.tif"))) {
+            byte[] read = new byte[content.length];
+            int offset = 0;
+            int length;
+            while (offset < read.length && (length = in.read(read, offset, read.length - offset)) != -1) {
+                offset += length;
+            }
+            assertEquals(content.length, offset);
+            assertArrayEquals(content, read);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package de.intranda.goobi.plugins;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SubmissionPackageTest {
+
+    private static final List<String> ALGORITHMS = Arrays.asList("SHA-256", "MD5");
+
+    private static final String ROOT_FOLDER = "1234";
+
+    // more than the 100 bytes of the name field of a ustar header
+    private static final String LONG_NAME = "Übersichtskarte_der_Gemeinde_Großwaltersdorf_mit_allen_Flurstücken_und_Gewässern_Maßstab_1_zu_5000.tif";
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("lza-package");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private Path createFile(String name, int size) throws IOException {
+        byte[] content = new byte[size];
+        new Random(size).nextBytes(content);
+        Path file = folder.resolve("source").resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return file;
+    }
+
+    /**
+     * Read all entries of the archive with the reader of commons-compress
+     */
+    private static Map<String, byte[]> readArchive(Path archive) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (TarArchiveInputStream in = new TarArchiveInputStream(Files.newInputStream(archive), StandardCharsets.UTF_8.name())) {
+            TarArchiveEntry entry;
+            while ((entry = in.getNextTarEntry()) != null) {
+                ByteArrayOutputStream content = new ByteArrayOutputStream();
+                in.transferTo(content);
+                assertEquals(entry.getSize(), content.size());
+                entries.put(entry.getName(), content.toByteArray());
+            }
+        }
+        return entries;
+    }
+
+    private static String hash(String algorithm, byte[] content) throws NoSuchAlgorithmException {
+        return ChecksumCalculator.getShaString(MessageDigest.getInstance(algorithm).digest(content));
+    }
+
+    /**
+     * Check that each line of a manifest matches the checksum of the named file in the archive
+     */
+    private static void checkManifest(Map<String, byte[]> entries, String manifestName, String algorithm, int expectedLines)
+            throws NoSuchAlgorithmException {
+        String manifest = new String(entries.get(ROOT_FOLDER + "/" + manifestName), StandardCharsets.UTF_8);
+        String[] lines = manifest.split("\n");
+        assertEquals(expectedLines, lines.length);
+        for (String line : lines) {
+            int separator = line.indexOf("  ");
+            String checksum = line.substring(0, separator);
+            byte[] content = entries.get(ROOT_FOLDER + "/" + line.substring(separator + 2));
+            assertEquals(hash(algorithm, content), checksum);
+        }
+    }
+
+    @Test
+    public void testPackage() throws Exception {
+        Path image = createFile("00000001.tif", 1500);
+        Path alto = createFile("00000001.xml", 100);
+        Path map = createFile("00000002.tif", 1024);
+        Path metsFile = createFile("1234.xml", 0);
+        Path target = folder.resolve("export").resolve("1234.tar");
+
+        Map<String, String> metsChecksums;
+        List<Map<String, String>> payloadChecksums;
+        try (SubmissionPackage submissionPackage = new SubmissionPackage(target, ROOT_FOLDER, ALGORITHMS, ALGORITHMS, LocalStorageBackend.INSTANCE)) {
+            payloadChecksums = submissionPackage.addPayloadFiles(
+                    Arrays.asList(new MetsFileReference("MASTER", "FILE_0001", image.toString()),
+                            new MetsFileReference("ALTO", "FILE_0001_ALTO", alto.toString())),
+                    Arrays.asList(image, alto));
+            // the name inside of the archive does not depend on the file system encoding
+            submissionPackage.addFile("MASTER/" + LONG_NAME, map);
+            metsChecksums = submissionPackage.addFile("1234.xml", metsFile);
+            assertEquals(4, submissionPackage.getNumberOfFiles());
+            submissionPackage.commit();
+        }
+        assertTrue(Files.exists(target));
+        assertFalse(Files.exists(target.resolveSibling("1234.tar.part")));
+        // the archive ends with two empty blocks and is a multiple of the record size
+        assertEquals(0, Files.size(target) % 512);
+
+        Map<String, byte[]> entries = readArchive(target);
+        assertArrayEquals(Files.readAllBytes(image), entries.get(ROOT_FOLDER + "/data/MASTER/00000001.tif"));
+        assertArrayEquals(Files.readAllBytes(map), entries.get(ROOT_FOLDER + "/data/MASTER/" + LONG_NAME));
+        assertArrayEquals(Files.readAllBytes(alto), entries.get(ROOT_FOLDER + "/data/ALTO/00000001.xml"));
+        assertArrayEquals(new byte[0], entries.get(ROOT_FOLDER + "/data/1234.xml"));
+        assertEquals("BagIt-Version: 1.0\nTag-File-Character-Encoding: UTF-8\n",
+                new String(entries.get(ROOT_FOLDER + "/bagit.txt"), StandardCharsets.UTF_8));
+        assertEquals(9, entries.size());
+
+        // the returned checksums are the ones of the content
+        assertEquals(hash("SHA-256", Files.readAllBytes(image)), payloadChecksums.get(0).get("SHA-256"));
+        assertEquals(hash("MD5", Files.readAllBytes(alto)), payloadChecksums.get(1).get("MD5"));
+        assertEquals(hash("SHA-256", new byte[0]), metsChecksums.get("SHA-256"));
+
+        for (String algorithm : ALGORITHMS) {
+            String manifestName = EwigExportPlugin.getChecksumManifestName(algorithm);
+            checkManifest(entries, manifestName, algorithm, 4);
+            // bagit.txt and both manifests
+            checkManifest(entries, "tag" + manifestName, algorithm, 3);
+        }
+    }
+
+    @Test
+    public void testSameFileOnlyOnce() throws Exception {
+        Path metsFile = createFile("1234.xml", 600);
+        Path target = folder.resolve("1234.tar");
+        try (SubmissionPackage submissionPackage = new SubmissionPackage(target, ROOT_FOLDER, ALGORITHMS, ALGORITHMS.subList(0, 1),
+                LocalStorageBackend.INSTANCE)) {
+            Map<String, String> first = submissionPackage.addFile("1234.xml", metsFile);
+            assertEquals(first, submissionPackage.addFile("1234.xml", metsFile));
+            submissionPackage.commit();
+        }
+        Map<String, byte[]> entries = readArchive(target);
+        assertEquals(4, entries.size());
+        assertNull(entries.get(ROOT_FOLDER + "/manifest-md5.txt"));
+        checkManifest(entries, "manifest-sha256.txt", "SHA-256", 1);
+    }
+
+    @Test
+    public void testIncompletePackageIsDeleted() throws Exception {
+        Path metsFile = createFile("1234.xml", 10);
+        Path target = folder.resolve("1234.tar");
+        try (SubmissionPackage submissionPackage = new SubmissionPackage(target, ROOT_FOLDER, ALGORITHMS, ALGORITHMS, LocalStorageBackend.INSTANCE)) {
+            submissionPackage.addFile("1234.xml", metsFile);
+            assertTrue(submissionPackage.getBytesWritten() > 0);
+        }
+        assertFalse(Files.exists(target));
+        assertFalse(Files.exists(target.resolveSibling("1234.tar.part")));
+    }
+}
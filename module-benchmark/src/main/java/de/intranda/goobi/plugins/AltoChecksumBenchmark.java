@@ -0,0 +1,72 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Hashes a folder with many small ALTO files on the worker pool of {@link ChecksumCalculator}. For small files the per file overhead dominates,
+ * not the digest itself.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AltoChecksumBenchmark {
+
+    @Param({ "500" })
+    private int numberOfFiles;
+
+    @Param({ "1", "4" })
+    private int numberOfThreads;
+
+    private Path folder;
+
+    private List<Path> files;
+
+    @Setup(Level.Trial)
+    public void createFiles() throws IOException {
+        folder = Files.createTempDirectory("alto-benchmark");
+        files = new ArrayList<>(numberOfFiles);
+        for (int i = 1; i <= numberOfFiles; i++) {
+            Path file = folder.resolve(String.format("%08d.xml", i));
+            BenchmarkFixtures.createAltoFile(file, 50);
+            files.add(file);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        for (Path file : files) {
+            Files.deleteIfExists(file);
+        }
+        Files.deleteIfExists(folder);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> calculateChecksums() throws IOException, InterruptedException {
+        try (ChecksumCalculator calculator = new ChecksumCalculator(numberOfThreads)) {
+            return calculator.calculateChecksums(files);
+        }
+    }
+}
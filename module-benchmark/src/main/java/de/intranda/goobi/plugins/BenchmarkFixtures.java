@@ -0,0 +1,142 @@
+package de.intranda.goobi.plugins;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import ugh.dl.DigitalDocument;
+import ugh.dl.DocStruct;
+import ugh.dl.DocStructType;
+import ugh.dl.Metadata;
+import ugh.dl.MetadataType;
+
+/**
+ * Generates the synthetic input data for the benchmarks: image sized blobs, ALTO files, METS files with a large fileSec and deep logical
+ * structures.
+ */
+final class BenchmarkFixtures {
+
+    private static final int MEGABYTE = 1024 * 1024;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * Create a file with random content, e.g. as replacement for a master image
+     *
+     * @param file the file to create
+     * @param sizeInMegabytes size of the file
+     * @param seed seed for the random content, to get the same file in each run
+     */
+    static void createRandomFile(Path file, int sizeInMegabytes, long seed) throws IOException {
+        byte[] block = new byte[MEGABYTE];
+        Random random = new Random(seed);
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (int i = 0; i < sizeInMegabytes; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        }
+    }
+
+    /**
+     * Create an ALTO file with the given number of text lines
+     */
+    static void createAltoFile(Path file, int numberOfLines) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<alto xmlns=\"http://www.loc.gov/standards/alto/ns-v4#\"><Layout><Page ID=\"Page1\" HEIGHT=\"4000\" WIDTH=\"3000\">");
+            writer.write("<PrintSpace>\n");
+            for (int line = 0; line < numberOfLines; line++) {
+                writer.write("<TextLine ID=\"line_" + line + "\" HPOS=\"100\" VPOS=\"" + (line * 40) + "\" HEIGHT=\"35\" WIDTH=\"2800\">");
+                for (int word = 0; word < 10; word++) {
+                    writer.write("<String CONTENT=\"Wort" + word + "\" HPOS=\"" + (100 + word * 280) + "\" VPOS=\"" + (line * 40)
+                            + "\" HEIGHT=\"35\" WIDTH=\"250\" WC=\"0.97\"/><SP/>");
+                }
+                writer.write("</TextLine>\n");
+            }
+            writer.write("</PrintSpace></Page></Layout></alto>\n");
+        }
+    }
+
+    /**
+     * Create a METS file with a MASTER and an ALTO file group, a physical and a logical structMap
+     *
+     * @param file the file to create
+     * @param numberOfPages number of pages, each page has one file in each file group
+     */
+    static void createMetsFile(Path file, int numberOfPages) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+            writer.write("<mets:mets xmlns:mets=\"" + MetsPostProcessor.METS_NAMESPACE + "\" xmlns:xlink=\"" + MetsPostProcessor.XLINK_NAMESPACE
+                    + "\">\n");
+            writer.write("<mets:dmdSec ID=\"DMDLOG_0000\"><mets:mdWrap MDTYPE=\"MODS\"><mets:xmlData/></mets:mdWrap></mets:dmdSec>\n");
+            writer.write("<mets:fileSec>\n");
+            writeFileGroup(writer, "MASTER", "file:///opt/digiverso/goobi/metadata/1/images/master_media/", ".tif", "image/tiff", numberOfPages);
+            writeFileGroup(writer, "ALTO", "file:///opt/digiverso/goobi/metadata/1/ocr/alto/", ".xml", "text/xml", numberOfPages);
+            writer.write("</mets:fileSec>\n");
+            writer.write("<mets:structMap TYPE=\"LOGICAL\"><mets:div ID=\"LOG_0000\" TYPE=\"Monograph\" DMDID=\"DMDLOG_0000\"/></mets:structMap>\n");
+            writer.write("<mets:structMap TYPE=\"PHYSICAL\"><mets:div ID=\"PHYS_0000\" TYPE=\"physSequence\">\n");
+            for (int page = 1; page <= numberOfPages; page++) {
+                String id = String.format("%08d", page);
+                writer.write("<mets:div ID=\"PHYS_" + id + "\" ORDER=\"" + page + "\" TYPE=\"page\"><mets:fptr FILEID=\"FILE_" + id
+                        + "_MASTER\"/><mets:fptr FILEID=\"FILE_" + id + "_ALTO\"/></mets:div>\n");
+            }
+            writer.write("</mets:div></mets:structMap>\n");
+            writer.write("</mets:mets>\n");
+        }
+    }
+
+    private static void writeFileGroup(BufferedWriter writer, String fileGroup, String folder, String extension, String mimetype, int numberOfPages)
+            throws IOException {
+        writer.write("<mets:fileGrp USE=\"" + fileGroup + "\">\n");
+        for (int page = 1; page <= numberOfPages; page++) {
+            String id = String.format("%08d", page);
+            writer.write("<mets:file ID=\"FILE_" + id + "_" + fileGroup + "\" MIMETYPE=\"" + mimetype + "\"><mets:FLocat LOCTYPE=\"URL\" xlink:href=\""
+                    + folder + id + extension + "\"/></mets:file>\n");
+        }
+        writer.write("</mets:fileGrp>\n");
+    }
+
+    /**
+     * Create a logical structure tree. Each element gets metadata values with leading and trailing whitespace.
+     *
+     * @param depth number of levels below the root element
+     * @param numberOfChildren number of children of each element
+     * @param numberOfMetadata number of metadata of each element
+     * @return the root element
+     */
+    static DocStruct createDocStructTree(int depth, int numberOfChildren, int numberOfMetadata) throws Exception {
+        MetadataType title = new MetadataType();
+        title.setName("TitleDocMain");
+        DocStructType type = new DocStructType();
+        type.setName("Chapter");
+        type.addMetadataType(title, "*", false, false);
+        type.addDocStructTypeAsChild("Chapter");
+        DigitalDocument digitalDocument = new DigitalDocument();
+        DocStruct root = digitalDocument.createDocStruct(type);
+        addChildren(digitalDocument, root, type, title, depth, numberOfChildren, numberOfMetadata);
+        return root;
+    }
+
+    private static void addChildren(DigitalDocument digitalDocument, DocStruct parent, DocStructType type, MetadataType title, int depth,
+            int numberOfChildren, int numberOfMetadata) throws Exception {
+        for (int i = 0; i < numberOfMetadata; i++) {
+            Metadata metadata = new Metadata(title);
+            metadata.setValue("  Kapitel " + depth + "." + i + "  ");
+            parent.addMetadata(metadata);
+        }
+        if (depth == 0) {
+            return;
+        }
+        for (int i = 0; i < numberOfChildren; i++) {
+            DocStruct child = digitalDocument.createDocStruct(type);
+            parent.addChild(child);
+            addChildren(digitalDocument, child, type, title, depth - 1, numberOfChildren, numberOfMetadata);
+        }
+    }
+}
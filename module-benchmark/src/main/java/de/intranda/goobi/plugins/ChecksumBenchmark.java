@@ -0,0 +1,87 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the stream based digest loop with the direct buffer channel path of {@link ChecksumCalculator}. The secondary result "megabytes" is
+ * the throughput in MB/s. Several algorithms are calculated from the same read.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChecksumBenchmark {
+
+    @Param({ "16", "256" })
+    private int fileSizeInMegabytes;
+
+    @Param({ "SHA-256", "SHA-256,MD5,SHA-512", "SHA-256,CRC32C" })
+    private String algorithmNames;
+
+    private List<String> algorithms;
+
+    private Path file;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Throughput {
+        public long megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void createFile() throws IOException {
+        algorithms = Arrays.asList(algorithmNames.split(","));
+        file = Files.createTempFile("checksum-benchmark", ".tif");
+        BenchmarkFixtures.createRandomFile(file, fileSizeInMegabytes, 42);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public Map<String, String> stream(Throughput throughput) throws IOException {
+        try (InputStream is = Files.newInputStream(file)) {
+            Map<String, String> checksum = ChecksumCalculator.calculateChecksums(is, algorithms);
+            throughput.megabytes += fileSizeInMegabytes;
+            return checksum;
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> channel(Throughput throughput) throws IOException {
+        Map<String, String> checksum = ChecksumCalculator.calculateChecksumsFromChannel(file, algorithms);
+        throughput.megabytes += fileSizeInMegabytes;
+        return checksum;
+    }
+}
@@ -0,0 +1,68 @@
+package de.intranda.goobi.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialises a submission manifest with the YAML mapper of the plugin.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ManifestBenchmark {
+
+    private SubmissionManifest manifest;
+
+    @Setup(Level.Trial)
+    public void createManifest() {
+        manifest = new SubmissionManifest();
+        manifest.setSubmissionManifestVersion("2.0");
+        manifest.setSubmissionSet("Digitalisate");
+        manifest.setSubmittingOrganization("Staats- und Universitätsbibliothek");
+        manifest.setOrganizationIdentifier("DE-7");
+        manifest.setContractNumber("12345");
+        manifest.setContact("Max Mustermann");
+        manifest.setContactRole("Data Curator");
+        manifest.setContactEmail("max.mustermann@example.org");
+        manifest.setTransferCurator("Erika Mustermann");
+        manifest.setTransferCuratorEmail("erika.mustermann@example.org");
+        manifest.setSubmissionName("PPN123456789");
+        manifest.setSubmissionDescription("Ein digitalisiertes Werk mit einer längeren Beschreibung");
+        manifest.setRightsHolder("N/A");
+        manifest.setRights("http://id.loc.gov/vocabulary/preservation/copyrightStatus/pub");
+        manifest.setRightsDescription("");
+        manifest.setLicense("https://creativecommons.org/publicdomain/mark/1.0/");
+        manifest.setAccessRights("public");
+        manifest.setDataSourceSystem("Goobi workflow - 1.0");
+        manifest.setMetadataFile("PPN123456789.xml");
+        manifest.setMetadataFileFormat("http://www.loc.gov/METS/");
+        CallbackParams param = new CallbackParams();
+        param.setEndpoint("https://goobi.example.org/api/callback");
+        param.setProcessId(4711);
+        param.setStepId(815);
+        manifest.setCallbackParams(param);
+    }
+
+    @Benchmark
+    public byte[] writeManifest() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(2048);
+        EwigExportPlugin.YAML_MAPPER.writeValue(out, manifest);
+        return out.toByteArray();
+    }
+}
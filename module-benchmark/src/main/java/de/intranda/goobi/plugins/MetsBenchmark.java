@@ -0,0 +1,118 @@
+package de.intranda.goobi.plugins;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.jdom2.Document;
+import org.jdom2.Element;
+import org.jdom2.JDOMException;
+import org.jdom2.Namespace;
+import org.jdom2.input.SAXBuilder;
+import org.jdom2.output.Format;
+import org.jdom2.output.XMLOutputter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Adds the checksums to a METS file with thousands of mets:file entries. The JDOM benchmark is the former implementation, which parsed the whole
+ * document and wrote it again with the pretty format. The StAX benchmark is the current two pass streaming implementation of
+ * {@link MetsPostProcessor}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MetsBenchmark {
+
+    private static final Namespace METS = Namespace.getNamespace("mets", MetsPostProcessor.METS_NAMESPACE);
+
+    private static final AtomicFileWriter NO_SYNC_WRITER = new AtomicFileWriter(AtomicFileWriter.FsyncPolicy.NONE);
+
+    private static final Namespace XLINK = Namespace.getNamespace("xlink", MetsPostProcessor.XLINK_NAMESPACE);
+
+    // a valid SHA-256 value, the content of the files is not relevant here
+    private static final String CHECKSUM = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+    @Param({ "1000", "10000" })
+    private int numberOfPages;
+
+    private Path folder;
+
+    private Path metsFile;
+
+    private Path targetFile;
+
+    private Map<String, String> checksums;
+
+    @Setup(Level.Trial)
+    public void createMetsFile() throws IOException, XMLStreamException {
+        folder = Files.createTempDirectory("mets-benchmark");
+        metsFile = folder.resolve("source.xml");
+        targetFile = folder.resolve("target.xml");
+        BenchmarkFixtures.createMetsFile(metsFile, numberOfPages);
+        checksums = new HashMap<>();
+        for (MetsFileReference reference : MetsPostProcessor.listFiles(metsFile)) {
+            checksums.put(reference.getId(), CHECKSUM);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFiles() throws IOException {
+        Files.deleteIfExists(metsFile);
+        Files.deleteIfExists(targetFile);
+        Files.deleteIfExists(folder);
+    }
+
+    @Benchmark
+    public void jdom() throws IOException, JDOMException {
+        Document metsDoc = new SAXBuilder().build(metsFile.toFile());
+        Element fileSec = metsDoc.getRootElement().getChild("fileSec", METS);
+        for (Element fileGrp : fileSec.getChildren("fileGrp", METS)) {
+            String fileGroupName = fileGrp.getAttributeValue("USE");
+            if ("MASTER".equals(fileGroupName) || "ALTO".equals(fileGroupName)) {
+                for (Element file : fileGrp.getChildren("file", METS)) {
+                    // the former implementation resolved each file from the href
+                    file.getChild("FLocat", METS).getAttributeValue("href", XLINK);
+                    file.setAttribute("CHECKSUM", checksums.get(file.getAttributeValue("ID")));
+                    file.setAttribute("CHECKSUMTYPE", ChecksumCalculator.CHECKSUM_TYPE);
+                }
+            }
+        }
+        try (OutputStream out = Files.newOutputStream(targetFile)) {
+            new XMLOutputter(Format.getPrettyFormat()).output(metsDoc, out);
+        }
+    }
+
+    @Benchmark
+    public void stax() throws IOException, XMLStreamException {
+        List<MetsFileReference> files = MetsPostProcessor.listFiles(metsFile);
+        Map<String, String> checksumsById = new HashMap<>(files.size() * 2);
+        for (MetsFileReference reference : files) {
+            checksumsById.put(reference.getId(), checksums.get(reference.getId()));
+        }
+        MetsPostProcessor postProcessor = new MetsPostProcessor();
+        // same writer as the export, but without fsync, the JDOM variant does not sync either
+        NO_SYNC_WRITER.write(targetFile, out -> postProcessor.process(metsFile, out, checksumsById, ChecksumCalculator.CHECKSUM_TYPE));
+    }
+}
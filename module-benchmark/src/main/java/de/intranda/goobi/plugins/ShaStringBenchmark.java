@@ -0,0 +1,43 @@
+package de.intranda.goobi.plugins;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the hex encoding of a SHA-256 digest, which runs once for each file of an export.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ShaStringBenchmark {
+
+    private byte[] hash;
+
+    @Setup(Level.Trial)
+    public void createHash() {
+        hash = new byte[32];
+        new Random(42).nextBytes(hash);
+        // a leading zero byte needs padding
+        hash[0] = 0;
+    }
+
+    @Benchmark
+    public String getShaString() {
+        return ChecksumCalculator.getShaString(hash);
+    }
+}
@@ -0,0 +1,80 @@
+package de.intranda.goobi.plugins;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ugh.dl.DocStruct;
+import ugh.dl.Metadata;
+
+/**
+ * Trims all metadata values of a generated logical structure. The tree is created again before each invocation, because trimming changes the
+ * values. The recursive benchmark is the former implementation, which set a new value for every metadata. The iterative benchmark is the
+ * sequential walk of {@link MetadataTrimmer}, the parallel benchmark trims the collected elements on the common fork/join pool. Depth 6 with 8
+ * children has about 300000 elements, which is the size of a large newspaper volume.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TrimMetadataBenchmark {
+
+    @Param({ "4:3", "8:3", "6:8" })
+    private String shape;
+
+    @Param({ "5" })
+    private int numberOfMetadata;
+
+    private DocStruct logical;
+
+    @Setup(Level.Invocation)
+    public void createTree() throws Exception {
+        String[] parts = shape.split(":");
+        logical = BenchmarkFixtures.createDocStructTree(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]), numberOfMetadata);
+    }
+
+    @Benchmark
+    public DocStruct recursive() {
+        trimRecursive(logical);
+        return logical;
+    }
+
+    @Benchmark
+    public int iterative() {
+        return MetadataTrimmer.trimSequential(MetadataTrimmer.collect(logical));
+    }
+
+    @Benchmark
+    public int parallel() {
+        return MetadataTrimmer.trim(MetadataTrimmer.collect(logical), ForkJoinPool.commonPool());
+    }
+
+    private static void trimRecursive(DocStruct inStruct) {
+        if (inStruct.getAllMetadata() != null) {
+            for (Metadata md : inStruct.getAllMetadata()) {
+                if (md.getValue() != null) {
+                    md.setValue(md.getValue().trim());
+                }
+            }
+        }
+        if (inStruct.getAllChildren() != null) {
+            for (DocStruct child : inStruct.getAllChildren()) {
+                trimRecursive(child);
+            }
+        }
+    }
+}